@@ -21,6 +21,7 @@ import java.awt.GraphicsEnvironment;
 import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
 import java.net.URL;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -46,15 +47,18 @@ import javax.swing.JMenuItem;
 import javax.swing.JPopupMenu;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
+import javax.swing.plaf.UIResource;
 import javax.swing.text.DefaultEditorKit;
 import javax.swing.text.Document;
 import javax.swing.text.EditorKit;
 import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
 import javax.swing.text.JTextComponent;
 import javax.swing.text.View;
 import javax.swing.text.ViewFactory;
 import jsyntaxpane.actions.DefaultSyntaxAction;
 import jsyntaxpane.actions.SyntaxAction;
+import jsyntaxpane.components.MarkerHighlighter;
 import jsyntaxpane.components.SyntaxComponent;
 import jsyntaxpane.util.Configuration;
 import jsyntaxpane.util.JarServiceProvider;
@@ -78,6 +82,9 @@ public class DefaultSyntaxKit extends DefaultEditorKit implements ViewFactory {
 	public static final String CONFIG_TOOLBAR_BORDER = "Toolbar.Buttons.BorderPainted";
 	public static final String CONFIG_TOOLBAR_OPAQUE = "Toolbar.Buttons.Opaque";
 	public static final String CONFIG_TOOLBAR_BORDER_SIZE = "Toolbar.Buttons.BorderSize";
+	public static final String CONFIG_ASYNC_LEXING = "AsyncLexing";
+	public static final String CONFIG_TOKEN_CACHE = "TokenCache";
+	public static final String CONFIG_TOKEN_CACHE_SIZE = "TokenCache.MaxSize";
 	private static final Pattern ACTION_KEY_PATTERN = Pattern.compile("Action\\.((\\w|-)+)");
 	private static final Pattern DEFAULT_ACTION_PATTERN = Pattern.compile("(DefaultAction.((\\w|-)+)).*");
 	private static Font DEFAULT_FONT;
@@ -86,11 +93,22 @@ public class DefaultSyntaxKit extends DefaultEditorKit implements ViewFactory {
 	private static Map<String, String> abbrvs;
 	private static String MENU_MASK_STRING = "control ";
 	private Lexer lexer;
+	/**
+	 * Pool the documents of this kit borrow their lexers from, or null if
+	 * all documents share the lexer
+	 */
+	private LexerPool lexers;
 	private static final Logger LOG = Logger.getLogger(DefaultSyntaxKit.class.getName());
 	private Map<JEditorPane, List<SyntaxComponent>> editorComponents =
 		new WeakHashMap<JEditorPane, List<SyntaxComponent>>();
 	private Map<JEditorPane, JPopupMenu> popupMenu =
 		new WeakHashMap<JEditorPane, JPopupMenu>();
+	/**
+	 * The highlighters the MarkerHighlighters replaced, to restore them when
+	 * the kit is deinstalled
+	 */
+	private Map<JEditorPane, Highlighter> replacedHighlighters =
+		new WeakHashMap<JEditorPane, Highlighter>();
 	/**
 	 * Main Configuration of JSyntaxPane EditorKits
 	 */
@@ -109,12 +127,37 @@ public class DefaultSyntaxKit extends DefaultEditorKit implements ViewFactory {
 	private static final String ACTION_MENU_TEXT = "MenuText";
 
 	/**
-	 * Create a new Kit for the given language
+	 * Create a new Kit for the given language.
+	 * If the lexer class has a public no-argument constructor, documents
+	 * get lexers of their own, created by that constructor, from a pool
+	 * shared by all kits using the same lexer class.  The given lexer stays
+	 * the kit's own.  Otherwise all documents share the given lexer.
 	 * @param lexer
 	 */
 	public DefaultSyntaxKit(Lexer lexer) {
 		super();
 		this.lexer = lexer;
+		if (lexer != null && LexerPool.canCreate(lexer.getClass())) {
+			lexers = LexerPool.forClass(lexer.getClass());
+		}
+	}
+
+	/**
+	 * Create a new Kit for the given language, whose documents each get
+	 * lexers created by the given factory.
+	 * @param lexerFactory
+	 */
+	public DefaultSyntaxKit(LexerFactory lexerFactory) {
+		super();
+		this.lexers = new LexerPool(lexerFactory);
+	}
+
+	/**
+	 * Get the lexer this kit was created with
+	 * @return the lexer, or null if the kit was created with a LexerFactory
+	 */
+	public Lexer getLexer() {
+		return lexer;
 	}
 
 	/**
@@ -335,6 +378,13 @@ public class DefaultSyntaxKit extends DefaultEditorKit implements ViewFactory {
 		editorPane.setCaretColor(caretColor);
 		Color selectionColor = getConfig().getColor(CONFIG_SELECTION, new Color(0x99ccff));
 		editorPane.setSelectionColor(selectionColor);
+		// the markers of the components are kept in their own layers, unless
+		// the application set a highlighter of its own
+		Highlighter highlighter = editorPane.getHighlighter();
+		if (highlighter == null || highlighter instanceof UIResource) {
+			replacedHighlighters.put(editorPane, highlighter);
+			editorPane.setHighlighter(new MarkerHighlighter());
+		}
 		addActions(editorPane);
 		addComponents(editorPane);
 		addPopupMenu(editorPane);
@@ -349,6 +399,12 @@ public class DefaultSyntaxKit extends DefaultEditorKit implements ViewFactory {
 		editorComponents.clear();
 		editorPane.getInputMap().clear();
 		editorPane.getActionMap().clear();
+		if (replacedHighlighters.containsKey(editorPane)) {
+			Highlighter highlighter = replacedHighlighters.remove(editorPane);
+			if (editorPane.getHighlighter() instanceof MarkerHighlighter) {
+				editorPane.setHighlighter(highlighter);
+			}
+		}
 	}
 
 	/**
@@ -473,7 +529,14 @@ public class DefaultSyntaxKit extends DefaultEditorKit implements ViewFactory {
 	 */
 	@Override
 	public Document createDefaultDocument() {
-		return new SyntaxDocument(lexer);
+		SyntaxDocument doc = (lexers != null) ? new SyntaxDocument(lexers) : new SyntaxDocument(lexer);
+		doc.setAsyncLexing(getConfig().getBoolean(CONFIG_ASYNC_LEXING, false));
+		String cacheDir = getConfig().getString(CONFIG_TOKEN_CACHE);
+		if (cacheDir != null) {
+			long maxSize = getConfig().getInteger(CONFIG_TOKEN_CACHE_SIZE, 256) * 1024L * 1024L;
+			doc.setTokenCache(TokenCache.forDirectory(new File(cacheDir), maxSize));
+		}
+		return doc;
 	}
 
 	/**
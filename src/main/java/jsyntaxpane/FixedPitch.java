@@ -0,0 +1,243 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+
+/**
+ * Measuring and drawing of text in a font where the printable ASCII chars
+ * have the same advance, the pitch, in every style.  The x of such a char is
+ * then the number of columns before it times the pitch, so text of them is
+ * never measured.
+ *
+ * Only the printable ASCII chars are known to take one column.  Other chars
+ * may be drawn from a fallback font, be double width, combine with the char
+ * before them, or be half of a surrogate pair, so each run of them is
+ * measured with the FontMetrics, together with the char before it.
+ *
+ * Like Utilities.drawTabbedText, the line ends take no room, and tabs are
+ * expanded by a TabExpander, or as one column if there is none.
+ */
+final class FixedPitch {
+
+    /**
+     * Text whose width must be its length times the pitch, so the glyphs of
+     * a run do not drift from the columns
+     */
+    private static final String SAMPLE = "mmmmiiii0000WWWW";
+
+    private FixedPitch() {
+    }
+
+    /**
+     * Get the pitch of a font: the advance of the printable ASCII chars, if
+     * it is the same whole number of pixels for all of them in the plain,
+     * bold and italic variants of the font.
+     * @param g the graphics the font is drawn with
+     * @param font
+     * @return the pitch, or 0 if the font is not fixed pitch
+     */
+    static int pitchOf(Graphics g, Font font) {
+        int pitch = 0;
+        for (int style = Font.PLAIN; style <= (Font.BOLD | Font.ITALIC); style++) {
+            FontMetrics fm = g.getFontMetrics(font.deriveFont(style));
+            int[] widths = fm.getWidths();
+            for (char c = ' '; c < 127; c++) {
+                if (pitch == 0) {
+                    pitch = widths[c];
+                } else if (widths[c] != pitch) {
+                    return 0;
+                }
+            }
+            double width = fm.getFont().getStringBounds(SAMPLE, fm.getFontRenderContext()).getWidth();
+            if (width != pitch * SAMPLE.length()) {
+                return 0;
+            }
+        }
+        return pitch;
+    }
+
+    /**
+     * @param s
+     * @return true if all the chars of the text take one column, or are tabs
+     * or line ends, so no FontMetrics are needed to measure it
+     */
+    static boolean isColumns(Segment s) {
+        char[] txt = s.array;
+        int end = s.offset + s.count;
+        for (int i = s.offset; i < end; i++) {
+            char c = txt[i];
+            if (!isColumn(c) && !isBreak(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param s
+     * @param x where the text starts
+     * @param fm metrics of the font the text is drawn with, which measure
+     * the chars that are not in columns
+     * @param pitch
+     * @param e
+     * @param startOffset offset of the text in the document
+     * @return the x after the text
+     */
+    static int advance(Segment s, int x, FontMetrics fm, int pitch, TabExpander e,
+            int startOffset) {
+        char[] txt = s.array;
+        int end = s.offset + s.count;
+        for (int i = s.offset; i < end;) {
+            if (isBreak(txt[i]) || isCounted(txt, i, end)) {
+                x = next(txt[i], x, pitch, e, startOffset + i - s.offset);
+                i++;
+            } else {
+                int j = measuredEnd(txt, i, end);
+                x += fm.charsWidth(txt, i, j - i);
+                i = j;
+            }
+        }
+        return x;
+    }
+
+    /**
+     * Draw the text, one run of chars between tabs at a time, and the chars
+     * that are not in columns where they were measured
+     * @return the x after the text
+     */
+    static int draw(Segment s, int x, int y, Graphics g, FontMetrics fm, int pitch,
+            TabExpander e, int startOffset) {
+        char[] txt = s.array;
+        int end = s.offset + s.count;
+        int flush = s.offset;
+        for (int i = s.offset; i < end;) {
+            char c = txt[i];
+            if (isBreak(c)) {
+                x = drawColumns(txt, flush, i, x, y, g, pitch);
+                x = next(c, x, pitch, e, startOffset + i - s.offset);
+                flush = ++i;
+            } else if (isCounted(txt, i, end)) {
+                i++;
+            } else {
+                x = drawColumns(txt, flush, i, x, y, g, pitch);
+                int j = measuredEnd(txt, i, end);
+                g.drawChars(txt, i, j - i, x, y);
+                x += fm.charsWidth(txt, i, j - i);
+                flush = i = j;
+            }
+        }
+        return drawColumns(txt, flush, end, x, y, g, pitch);
+    }
+
+    /**
+     * Get the offset in the text that is closest to x, the same as
+     * Utilities.getTabbedTextOffset rounding to the nearest char boundary.
+     * The offset is never between the chars of a surrogate pair.
+     * @param s
+     * @param x0 where the text starts
+     * @param x
+     * @param fm metrics of the font the text is drawn with
+     * @param pitch
+     * @param e
+     * @param startOffset offset of the text in the document
+     * @return offset in the text
+     */
+    static int offset(Segment s, int x0, int x, FontMetrics fm, int pitch, TabExpander e,
+            int startOffset) {
+        char[] txt = s.array;
+        int end = s.offset + s.count;
+        int currX = x0;
+        for (int i = s.offset; i < end;) {
+            if (isBreak(txt[i]) || isCounted(txt, i, end)) {
+                int nextX = next(txt[i], currX, pitch, e, startOffset + i - s.offset);
+                if (x >= currX && x < nextX) {
+                    return (x - currX < nextX - x) ? i - s.offset : i + 1 - s.offset;
+                }
+                currX = nextX;
+                i++;
+                continue;
+            }
+            int j = measuredEnd(txt, i, end);
+            int runX = currX;
+            int prev = i;
+            for (int k = i + 1; k <= j; k++) {
+                if (k < j && Character.isLowSurrogate(txt[k])
+                        && Character.isHighSurrogate(txt[k - 1])) {
+                    continue;
+                }
+                int nextX = runX + fm.charsWidth(txt, i, k - i);
+                if (x >= currX && x < nextX) {
+                    return (x - currX < nextX - x) ? prev - s.offset : k - s.offset;
+                }
+                currX = nextX;
+                prev = k;
+            }
+            i = j;
+        }
+        return s.count;
+    }
+
+    private static int drawColumns(char[] txt, int from, int to, int x, int y, Graphics g,
+            int pitch) {
+        if (to > from) {
+            g.drawChars(txt, from, to - from, x, y);
+            x += (to - from) * pitch;
+        }
+        return x;
+    }
+
+    /**
+     * @return true if the char at i takes one column: it is printable ASCII,
+     * and the char after it does not combine with it
+     */
+    private static boolean isCounted(char[] txt, int i, int end) {
+        return isColumn(txt[i]) && (i + 1 == end || isColumn(txt[i + 1]) || isBreak(txt[i + 1]));
+    }
+
+    /**
+     * @return the end of the chars from i on that must be measured
+     */
+    private static int measuredEnd(char[] txt, int i, int end) {
+        int j = i + 1;
+        while (j < end && !isBreak(txt[j]) && !isCounted(txt, j, end)) {
+            j++;
+        }
+        return j;
+    }
+
+    private static boolean isColumn(char c) {
+        return c >= ' ' && c < 127;
+    }
+
+    private static boolean isBreak(char c) {
+        return c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static int next(char c, int x, int pitch, TabExpander e, int offset) {
+        switch (c) {
+            case '\t':
+                return (e != null) ? (int) e.nextTabStop((float) x, offset) : x + pitch;
+            case '\n':
+            case '\r':
+                return x;
+            default:
+                return x + pitch;
+        }
+    }
+}
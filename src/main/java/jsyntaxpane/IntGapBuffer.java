@@ -0,0 +1,151 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License 
+ *       at http://www.apache.org/licenses/LICENSE-2.0 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.  
+ */
+package jsyntaxpane;
+
+/**
+ * A growable list of ints kept in an array with a gap, like the text of a
+ * GapContent.  Inserts and removes near the last edit only move the values
+ * between the old and new gap positions.
+ *
+ * The values after the gap are stored relative to a common delta, so
+ * {@link #shift(int, int)}, adding a delta to all the values from an index
+ * to the end, costs the same as moving the gap there.  This is used for
+ * document positions: after an edit only the positions near the edit are
+ * touched, not all the ones following it.
+ */
+final class IntGapBuffer {
+
+	private int[] data;
+	private int gapStart;
+	private int gapEnd;
+	/**
+	 * added to all the values stored after the gap
+	 */
+	private int tailDelta;
+
+	IntGapBuffer() {
+		this(16);
+	}
+
+	IntGapBuffer(int capacity) {
+		data = new int[Math.max(capacity, 16)];
+		gapEnd = data.length;
+	}
+
+	int size() {
+		return data.length - (gapEnd - gapStart);
+	}
+
+	int get(int ndx) {
+		if (ndx < gapStart) {
+			return data[ndx];
+		}
+		return data[ndx + gapEnd - gapStart] + tailDelta;
+	}
+
+	void set(int ndx, int value) {
+		if (ndx < gapStart) {
+			data[ndx] = value;
+		} else {
+			data[ndx + gapEnd - gapStart] = value - tailDelta;
+		}
+	}
+
+	void add(int value) {
+		insert(size(), value);
+	}
+
+	void insert(int ndx, int value) {
+		moveGap(ndx);
+		ensureGap(1);
+		data[gapStart++] = value;
+	}
+
+	/**
+	 * Insert all the values of the given buffer at ndx
+	 * @param ndx
+	 * @param values
+	 */
+	void insert(int ndx, IntGapBuffer values) {
+		int count = values.size();
+		moveGap(ndx);
+		ensureGap(count);
+		for (int i = 0; i < count; i++) {
+			data[gapStart++] = values.get(i);
+		}
+	}
+
+	/**
+	 * Remove the values from (inclusive) to (exclusive)
+	 * @param from
+	 * @param to
+	 */
+	void remove(int from, int to) {
+		moveGap(from);
+		gapEnd += to - from;
+	}
+
+	/**
+	 * Add delta to all the values from the given index to the end
+	 * @param from
+	 * @param delta
+	 */
+	void shift(int from, int delta) {
+		moveGap(from);
+		tailDelta += delta;
+	}
+
+	void clear() {
+		gapStart = 0;
+		gapEnd = data.length;
+		tailDelta = 0;
+	}
+
+	private void moveGap(int ndx) {
+		if (ndx < gapStart) {
+			int count = gapStart - ndx;
+			System.arraycopy(data, ndx, data, gapEnd - count, count);
+			gapStart = ndx;
+			gapEnd -= count;
+			if (tailDelta != 0) {
+				for (int i = gapEnd; i < gapEnd + count; i++) {
+					data[i] -= tailDelta;
+				}
+			}
+		} else if (ndx > gapStart) {
+			int count = ndx - gapStart;
+			System.arraycopy(data, gapEnd, data, gapStart, count);
+			if (tailDelta != 0) {
+				for (int i = gapStart; i < ndx; i++) {
+					data[i] += tailDelta;
+				}
+			}
+			gapStart = ndx;
+			gapEnd += count;
+		}
+	}
+
+	private void ensureGap(int count) {
+		if (gapEnd - gapStart >= count) {
+			return;
+		}
+		int capacity = Math.max(data.length * 2, size() + count);
+		int[] newData = new int[capacity];
+		int tail = data.length - gapEnd;
+		System.arraycopy(data, 0, newData, 0, gapStart);
+		System.arraycopy(data, gapEnd, newData, capacity - tail, tail);
+		data = newData;
+		gapEnd = capacity - tail;
+	}
+}
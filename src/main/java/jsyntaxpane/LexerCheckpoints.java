@@ -0,0 +1,172 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Positions in a document where the lexer can be restarted.  A checkpoint
+ * is recorded at the first token boundary of each line.  For each
+ * checkpoint we keep:
+ * <ul>
+ * <li>the document position where lexing can continue</li>
+ * <li>the state of the lexer at that position</li>
+ * <li>the extent: the position up to which the text was examined by the
+ * lexer before reaching the checkpoint.  Edits at or after the extent do
+ * not change anything before the checkpoint</li>
+ * <li>the number of tokens produced before the checkpoint</li>
+ * </ul>
+ * Checkpoints are kept sorted by position, and the first one is always at
+ * the start of the document.
+ * Positions, extents and token counts are kept in gap buffers, so moving
+ * the checkpoints after an edit does not touch all of them.
+ */
+class LexerCheckpoints {
+
+	/**
+	 * Maximum number of characters between two checkpoints, so very long
+	 * lines still get some restart points.
+	 */
+	static final int MAX_SPAN = 2048;
+	private final IntGapBuffer positions = new IntGapBuffer();
+	private final IntGapBuffer extents = new IntGapBuffer();
+	private final IntGapBuffer tokenCounts = new IntGapBuffer();
+	private final List<Object> states = new ArrayList<Object>();
+
+	/**
+	 * Append a checkpoint.  The position must be greater than the position
+	 * of the last checkpoint.
+	 * @param position
+	 * @param extent
+	 * @param tokenCount
+	 * @param state
+	 */
+	void add(int position, int extent, int tokenCount, Object state) {
+		positions.add(position);
+		extents.add(extent);
+		tokenCounts.add(tokenCount);
+		states.add(state);
+	}
+
+	int size() {
+		return states.size();
+	}
+
+	int getPosition(int ndx) {
+		return positions.get(ndx);
+	}
+
+	int getExtent(int ndx) {
+		return extents.get(ndx);
+	}
+
+	int getTokenCount(int ndx) {
+		return tokenCounts.get(ndx);
+	}
+
+	Object getState(int ndx) {
+		return states.get(ndx);
+	}
+
+	/**
+	 * Remove all the checkpoints
+	 */
+	void clear() {
+		positions.clear();
+		extents.clear();
+		tokenCounts.clear();
+		states.clear();
+	}
+
+	/**
+	 * Find the last checkpoint that is not affected by a change at the given
+	 * position.  That is the last checkpoint whose extent is not past pos.
+	 * @param pos
+	 * @return index of the checkpoint, or -1 if there is none.
+	 */
+	int findRestart(int pos) {
+		// extents are increasing, so we can binary search them
+		int lo = 0;
+		int hi = size() - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (extents.get(mid) <= pos) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Find the checkpoint at the given position
+	 * @param pos
+	 * @param from index to start the search from
+	 * @return index of the checkpoint at pos, or the negative of
+	 * (insertion point + 1) if there is no checkpoint at pos.
+	 */
+	int find(int pos, int from) {
+		int lo = from;
+		int hi = size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int p = positions.get(mid);
+			if (p < pos) {
+				lo = mid + 1;
+			} else if (p > pos) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+
+	/**
+	 * Replace the checkpoints after <code>keep</code> up to (excluding)
+	 * <code>resume</code> with the given replacement checkpoints, and shift
+	 * the ones from <code>resume</code> on by the given deltas.
+	 * @param keep number of checkpoints to keep as is
+	 * @param replacement new checkpoints to insert after the kept ones
+	 * @param resume index of the first old checkpoint to retain, or size()
+	 * @param delta change in document length
+	 * @param minExtent minimum extent for the retained checkpoints
+	 * @param tokenDelta change in the number of tokens before the retained
+	 * checkpoints
+	 */
+	void splice(int keep, LexerCheckpoints replacement, int resume,
+		int delta, int minExtent, int tokenDelta) {
+		positions.remove(keep, resume);
+		extents.remove(keep, resume);
+		tokenCounts.remove(keep, resume);
+		states.subList(keep, resume).clear();
+		positions.shift(keep, delta);
+		extents.shift(keep, delta);
+		tokenCounts.shift(keep, tokenDelta);
+		positions.insert(keep, replacement.positions);
+		extents.insert(keep, replacement.extents);
+		tokenCounts.insert(keep, replacement.tokenCounts);
+		states.addAll(keep, replacement.states);
+		// the new text before the retained checkpoints may have been
+		// examined further than the old one was
+		int size = size();
+		for (int i = keep + replacement.size(); i < size && extents.get(i) < minExtent; i++) {
+			extents.set(i, minExtent);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License 
+ *       at http://www.apache.org/licenses/LICENSE-2.0 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.  
+ */
+package jsyntaxpane;
+
+/**
+ * Creates new Lexer instances.  Lexers keep scanning state, so a Lexer must
+ * not be used by two threads at the same time.  Kits use a factory, through
+ * a {@link LexerPool}, to give documents lexers of their own.
+ */
+public interface LexerFactory {
+
+    /**
+     * Create a new Lexer
+     * @return
+     */
+    public Lexer createLexer();
+}
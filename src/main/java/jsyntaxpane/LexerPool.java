@@ -0,0 +1,143 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License 
+ *       at http://www.apache.org/licenses/LICENSE-2.0 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.  
+ */
+package jsyntaxpane;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pool of Lexers of one kind.  SyntaxDocuments borrow a Lexer from the
+ * pool for each parse and give it back when done, so any number of
+ * documents can be lexed at the same time, each with its own Lexer, while
+ * only as many Lexers exist as are needed concurrently.
+ *
+ * This class is thread safe.
+ */
+public class LexerPool {
+
+	/**
+	 * Maximum number of idle Lexers kept for reuse
+	 */
+	private static final int MAX_IDLE = 16;
+	private static final Map<Class<? extends Lexer>, LexerPool> POOLS =
+		new HashMap<Class<? extends Lexer>, LexerPool>();
+	private final LexerFactory factory;
+	private final List<Lexer> idle = new ArrayList<Lexer>();
+
+	public LexerPool(LexerFactory factory) {
+		if (factory == null) {
+			throw new IllegalArgumentException("factory cannot be null");
+		}
+		this.factory = factory;
+	}
+
+	/**
+	 * Get a Lexer for exclusive use until it is released
+	 * @return
+	 */
+	public Lexer borrow() {
+		synchronized (idle) {
+			if (!idle.isEmpty()) {
+				return idle.remove(idle.size() - 1);
+			}
+		}
+		return factory.createLexer();
+	}
+
+	/**
+	 * Return a Lexer obtained from {@link #borrow()} to the pool.  A Lexer
+	 * already in the pool is not added again, so it is never lent twice.
+	 * @param lexer
+	 */
+	public void release(Lexer lexer) {
+		synchronized (idle) {
+			for (Lexer l : idle) {
+				if (l == lexer) {
+					return;
+				}
+			}
+			if (idle.size() < MAX_IDLE) {
+				idle.add(lexer);
+			}
+		}
+	}
+
+	/**
+	 * Get the shared pool for Lexers of the given class.  The class must have
+	 * a public no-argument constructor, and Lexers it creates must need no
+	 * other setup, as any document may get any of them.
+	 * @param type
+	 * @return
+	 */
+	public static LexerPool forClass(Class<? extends Lexer> type) {
+		synchronized (POOLS) {
+			LexerPool pool = POOLS.get(type);
+			if (pool == null) {
+				pool = new LexerPool(factoryFor(type));
+				POOLS.put(type, pool);
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * Check if Lexers of the given class can be created by
+	 * {@link #forClass(java.lang.Class)}
+	 * @param type
+	 * @return
+	 */
+	public static boolean canCreate(Class<? extends Lexer> type) {
+		if (!Modifier.isPublic(type.getModifiers()) ||
+			Modifier.isAbstract(type.getModifiers())) {
+			return false;
+		}
+		try {
+			type.getConstructor();
+			return true;
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Create a LexerFactory that creates instances of the given class using
+	 * its public no-argument constructor.
+	 * @param type
+	 * @return
+	 */
+	public static LexerFactory factoryFor(Class<? extends Lexer> type) {
+		final Constructor<? extends Lexer> constructor;
+		try {
+			constructor = type.getConstructor();
+		} catch (NoSuchMethodException ex) {
+			throw new IllegalArgumentException("No public default constructor in " + type, ex);
+		}
+		return new LexerFactory() {
+
+			@Override
+			public Lexer createLexer() {
+				try {
+					return constructor.newInstance();
+				} catch (Exception ex) {
+					throw new IllegalStateException("Cannot create lexer " +
+						constructor.getDeclaringClass().getName(), ex);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License 
+ *       at http://www.apache.org/licenses/LICENSE-2.0 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.  
+ */
+package jsyntaxpane;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+import javax.swing.text.Segment;
+
+/**
+ * Lexes a SyntaxDocument in a background thread.
+ * Each run lexes a snapshot of the whole text, and hands the tokens to the
+ * document on the event dispatch thread.  Changes made while a run is
+ * queued are picked up by that run, and a run whose text is no longer
+ * current is abandoned, so at most one lexing pass is wasted per burst of
+ * edits.
+ */
+class LexerWorker implements Runnable {
+
+	/**
+	 * The text of the document at some version
+	 */
+	static class Snapshot {
+
+		final int version;
+		final String text;
+		/**
+		 * true if the text was loaded into an empty document
+		 */
+		final boolean loaded;
+
+		Snapshot(int version, String text, boolean loaded) {
+			this.version = version;
+			this.text = text;
+			this.loaded = loaded;
+		}
+	}
+	private static final Logger log = Logger.getLogger(LexerWorker.class.getName());
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "jsyntaxpane-lexer");
+			t.setDaemon(true);
+			t.setPriority(Thread.NORM_PRIORITY - 1);
+			return t;
+		}
+	};
+	private final SyntaxDocument doc;
+	private final ThreadPoolExecutor executor;
+	private final AtomicBoolean queued = new AtomicBoolean();
+
+	LexerWorker(SyntaxDocument doc) {
+		this.doc = doc;
+		// the thread goes away when the document is idle
+		executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), THREAD_FACTORY);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Make sure the document is lexed again after the latest change.
+	 */
+	void schedule() {
+		if (queued.compareAndSet(false, true)) {
+			executor.execute(this);
+		}
+	}
+
+	/**
+	 * Stop lexing, and wait for a running pass to give up, so the lexer can
+	 * be used by the document again.
+	 */
+	void shutdown() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		// any change after this will queue another run
+		queued.set(false);
+		final Snapshot snapshot = doc.snapshot();
+		if (snapshot == null) {
+			return;
+		}
+		long ts = System.nanoTime();
+		Segment seg = new Segment(snapshot.text.toCharArray(), 0, snapshot.text.length());
+		final TokenStore toks = new TokenStore(seg.count / 10);
+		final LexerCheckpoints cps = new LexerCheckpoints();
+		if (!doc.lex(seg, toks, cps, snapshot.version, snapshot.loaded)) {
+			return;
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest(String.format("Lexed %d in background in %d ms, giving %d tokens\n",
+				seg.count, (System.nanoTime() - ts) / 1000000, toks.size()));
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+
+			@Override
+			public void run() {
+				doc.publish(snapshot.version, toks, cps);
+			}
+		});
+	}
+}
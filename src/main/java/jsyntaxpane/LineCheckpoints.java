@@ -0,0 +1,145 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.awt.FontMetrics;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+
+/**
+ * The x of every SPACING chars of a long line of a SyntaxView, so the part
+ * of the line within the clip can be drawn without measuring the text
+ * before it, and the text after it is not drawn at all.
+ *
+ * The checkpoints are added while the line is measured, in order, the
+ * first one being the start of the line.
+ */
+final class LineCheckpoints {
+
+    /**
+     * Number of chars between checkpoints
+     */
+    static final int SPACING = 1024;
+    private final int x0;
+    private int[] offsets = new int[16];
+    private int[] xs = new int[16];
+    private int count;
+    private final Segment piece = new Segment();
+
+    /**
+     * @param start offset of the start of the line
+     * @param x where the line starts
+     */
+    LineCheckpoints(int start, int x) {
+        this.x0 = x;
+        add(start, x);
+    }
+
+    /**
+     * @param x
+     * @return true if the checkpoints are for a line starting at x
+     */
+    boolean isValid(int x) {
+        return x == x0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int getOffset(int i) {
+        return offsets[i];
+    }
+
+    int getX(int i) {
+        return xs[i];
+    }
+
+    /**
+     * @param offset
+     * @return index of the last checkpoint at or before offset, or 0
+     */
+    int indexOfOffset(int offset) {
+        return lastAtOrBefore(offsets, offset);
+    }
+
+    /**
+     * @param x
+     * @return index of the last checkpoint at or left of x, or 0
+     */
+    int indexOfX(int x) {
+        return lastAtOrBefore(xs, x);
+    }
+
+    /**
+     * Measure the next text of the line, adding the checkpoints within it.
+     * @param s the text
+     * @param x where the text starts
+     * @param fm metrics of the font the text is drawn with
+     * @param pitch the advance of the printable ASCII chars if the font is
+     * fixed pitch, or 0
+     * @param e
+     * @param startOffset offset of the text in the document
+     * @return the x after the text
+     */
+    int measure(Segment s, int x, FontMetrics fm, int pitch, TabExpander e, int startOffset) {
+        int end = startOffset + s.count;
+        int offset = startOffset;
+        while (offset < end) {
+            int checkpoint = offsets[count - 1] + SPACING;
+            int next = Math.min(end, checkpoint);
+            piece.array = s.array;
+            piece.offset = s.offset + offset - startOffset;
+            piece.count = next - offset;
+            x = (pitch > 0)
+                    ? FixedPitch.advance(piece, x, fm, pitch, e, offset)
+                    : x + Utilities.getTabbedTextWidth(piece, fm, x, e, offset);
+            offset = next;
+            if (offset == checkpoint) {
+                add(offset, x);
+            }
+        }
+        piece.array = null;
+        return x;
+    }
+
+    private void add(int offset, int x) {
+        if (count == offsets.length) {
+            int[] o = new int[count * 2];
+            System.arraycopy(offsets, 0, o, 0, count);
+            offsets = o;
+            int[] p = new int[count * 2];
+            System.arraycopy(xs, 0, p, 0, count);
+            xs = p;
+        }
+        offsets[count] = offset;
+        xs[count] = x;
+        count++;
+    }
+
+    private int lastAtOrBefore(int[] values, int value) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(0, low - 1);
+    }
+}
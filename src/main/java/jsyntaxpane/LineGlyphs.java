@@ -0,0 +1,151 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+
+/**
+ * The text of one line of a SyntaxView shaped into glyph runs, so painting
+ * the line again does not lay out its text again.
+ * The runs are the ones Utilities.drawTabbedText draws: the text between
+ * tabs and line ends, at the same positions.
+ * Shaping stops at the first text with a decorated style, which the styles
+ * must draw.  The line is then incomplete, and holds no glyphs.
+ */
+final class LineGlyphs {
+
+    private final FontRenderContext frc;
+    /**
+     * The x the line was shaped at, which the tab stops depend on
+     */
+    private final int x0;
+    private GlyphVector[] runs = new GlyphVector[8];
+    private int[] xs = new int[8];
+    private Color[] colors = new Color[8];
+    private int count;
+    private int endX;
+    private boolean complete = true;
+
+    LineGlyphs(FontRenderContext frc, int x) {
+        this.frc = frc;
+        this.x0 = x;
+        this.endX = x;
+    }
+
+    /**
+     * @param frc
+     * @param x
+     * @return true if the line can be drawn at x with the given context
+     */
+    boolean isValid(FontRenderContext frc, int x) {
+        return x == x0 && frc.equals(this.frc);
+    }
+
+    /**
+     * @return false if the line has decorated text, and must be drawn by
+     * the styles
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Shape text of the line with the given style.  Nothing is shaped
+     * once the line is incomplete.
+     * @param segment
+     * @param x where the text starts
+     * @param style
+     * @param fm metrics of the font derived for the style
+     * @param e
+     * @param startOffset
+     * @return the x after the text, the same as Utilities.drawTabbedText
+     */
+    int add(Segment segment, int x, SyntaxStyle style, FontMetrics fm, TabExpander e,
+            int startOffset) {
+        if (!complete) {
+            return x;
+        }
+        if ((style.getFontStyle() & 0x18) != 0) {
+            // the runs shaped so far are of no use
+            complete = false;
+            runs = null;
+            xs = null;
+            colors = null;
+            count = 0;
+            return x;
+        }
+        char[] txt = segment.array;
+        int end = segment.offset + segment.count;
+        int flush = segment.offset;
+        for (int i = segment.offset; i < end; i++) {
+            char c = txt[i];
+            if (c == '\t' || c == '\n' || c == '\r') {
+                x = addRun(txt, flush, i - flush, x, style.getColor(), fm);
+                flush = i + 1;
+                if (c == '\t') {
+                    x = (e != null)
+                            ? (int) e.nextTabStop((float) x, startOffset + i - segment.offset)
+                            : x + fm.charWidth(' ');
+                }
+            }
+        }
+        x = addRun(txt, flush, end - flush, x, style.getColor(), fm);
+        endX = x;
+        return x;
+    }
+
+    private int addRun(char[] txt, int from, int length, int x, Color color, FontMetrics fm) {
+        if (length <= 0) {
+            return x;
+        }
+        if (count == runs.length) {
+            GlyphVector[] r = new GlyphVector[count * 2];
+            System.arraycopy(runs, 0, r, 0, count);
+            runs = r;
+            int[] p = new int[count * 2];
+            System.arraycopy(xs, 0, p, 0, count);
+            xs = p;
+            Color[] c = new Color[count * 2];
+            System.arraycopy(colors, 0, c, 0, count);
+            colors = c;
+        }
+        char[] chars = new char[length];
+        System.arraycopy(txt, from, chars, 0, length);
+        runs[count] = fm.getFont().createGlyphVector(frc, chars);
+        xs[count] = x;
+        colors[count] = color;
+        count++;
+        return x + fm.charsWidth(txt, from, length);
+    }
+
+    /**
+     * Draw the line, at the x it was shaped at
+     * @param g
+     * @param y the baseline
+     * @return the x after the line
+     */
+    int draw(Graphics2D g, int y) {
+        for (int i = 0; i < count; i++) {
+            g.setColor(colors[i]);
+            g.drawGlyphVector(runs[i], xs[i], y);
+        }
+        return endX;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import javax.swing.text.Element;
+
+/**
+ * The index of the first token of each line of a SyntaxDocument: the first
+ * token that ends after the start of the line.  If the line has no tokens,
+ * this is the first token of a later line, or the number of tokens.
+ *
+ * The indexes are kept in a gap buffer, so after an edit only the lines of
+ * the relexed tokens are looked up again, and the ones after them are moved
+ * by the change in the number of tokens at the cost of moving the gap.
+ */
+final class LineIndex {
+
+	private final IntGapBuffer first;
+
+	/**
+	 * Index the lines of root, in one pass over the lines and tokens
+	 * @param root the root element of the document
+	 * @param tokens
+	 */
+	LineIndex(Element root, TokenStore tokens) {
+		int lines = root.getElementCount();
+		first = new IntGapBuffer(lines);
+		int ndx = 0;
+		for (int line = 0; line < lines; line++) {
+			int start = root.getElement(line).getStartOffset();
+			while (ndx < tokens.size() && tokens.getEnd(ndx) <= start) {
+				ndx++;
+			}
+			first.add(ndx);
+		}
+	}
+
+	int size() {
+		return first.size();
+	}
+
+	/**
+	 * @param line
+	 * @return index of the first token of the line
+	 */
+	int get(int line) {
+		return first.get(line);
+	}
+
+	/**
+	 * Update the index after the document changed within the lines from
+	 * and to (inclusive) of root, and the tokens of these lines were
+	 * relexed.  The lines after them must not have changed, except for
+	 * moving, and the number of tokens before them must have changed by
+	 * tokenDelta.
+	 * @param root the root element of the changed document
+	 * @param tokens the changed tokens
+	 * @param from
+	 * @param to
+	 * @param tokenDelta
+	 */
+	void update(Element root, TokenStore tokens, int from, int to, int tokenDelta) {
+		int oldTo = to - (root.getElementCount() - first.size());
+		first.remove(from, oldTo + 1);
+		if (tokenDelta != 0) {
+			first.shift(from, tokenDelta);
+		}
+		int ndx = firstEndingAfter(tokens, root.getElement(from).getStartOffset());
+		for (int line = from; line <= to; line++) {
+			int start = root.getElement(line).getStartOffset();
+			while (ndx < tokens.size() && tokens.getEnd(ndx) <= start) {
+				ndx++;
+			}
+			first.insert(line, ndx);
+		}
+	}
+
+	private static int firstEndingAfter(TokenStore tokens, int pos) {
+		int ndx = tokens.search(pos, 0, TokenType.OPERATOR);
+		ndx = (ndx < 0) ? -ndx - 1 : ndx;
+		// the previous token may extend over pos
+		if (ndx > 0 && tokens.getEnd(ndx - 1) > pos) {
+			ndx--;
+		}
+		return ndx;
+	}
+}
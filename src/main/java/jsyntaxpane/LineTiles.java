@@ -0,0 +1,185 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Images of the text of a SyntaxView, in tiles of TILE_LINES lines, so the
+ * lines scrolled back into view are copied instead of drawn again.
+ * The tiles are transparent outside the text, so the highlights painted
+ * under the text show through.
+ * The least recently used tiles are dropped when the images take more than
+ * the given number of bytes.
+ * Edited lines are marked dirty, and only they are drawn again in the image
+ * of their tile.  Tiles are only dropped when lines are added or removed.
+ */
+final class LineTiles {
+
+    /**
+     * Number of lines in a tile, at most 32 as the dirty lines of a tile
+     * are the bits of an int
+     */
+    static final int TILE_LINES = 32;
+    private final long maxBytes;
+    private long bytes;
+    private final LinkedHashMap<Integer, Tile> tiles =
+            new LinkedHashMap<Integer, Tile>(16, 0.75f, true);
+
+    private static final class Tile {
+
+        final BufferedImage image;
+        final Font font;
+        final int x;
+        final int lineHeight;
+        /**
+         * The lines of the tile to draw again, a bit for each
+         */
+        int dirty;
+
+        Tile(BufferedImage image, Font font, int x, int lineHeight) {
+            this.image = image;
+            this.font = font;
+            this.x = x;
+            this.lineHeight = lineHeight;
+        }
+    }
+
+    /**
+     * @param maxBytes the memory budget of the images
+     */
+    LineTiles(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @return true if a tile of this size is small enough to be kept
+     */
+    boolean fits(int width, int height) {
+        return sizeOf(width, height) <= maxBytes / 4;
+    }
+
+    /**
+     * Get the image of a tile, if it was drawn the way it would be drawn now
+     * @param tile number of the tile, its first line divided by TILE_LINES
+     * @param font the font of the container
+     * @param x where the lines start
+     * @param width the width of the container
+     * @param lineHeight
+     * @return the image, or null if the tile must be drawn
+     */
+    BufferedImage get(int tile, Font font, int x, int width, int lineHeight) {
+        Tile t = tiles.get(tile);
+        if (t == null) {
+            return null;
+        }
+        if (t.x != x || t.lineHeight != lineHeight || t.image.getWidth() != width
+                || !t.font.equals(font)) {
+            remove(tile);
+            return null;
+        }
+        return t.image;
+    }
+
+    /**
+     * @param tile
+     * @return the lines of the tile that must be drawn again in its image,
+     * bit i being set for its line i
+     */
+    int getDirtyLines(int tile) {
+        Tile t = tiles.get(tile);
+        return (t == null) ? 0 : t.dirty;
+    }
+
+    /**
+     * Mark the lines of the tile as drawn again
+     * @param tile
+     */
+    void clean(int tile) {
+        Tile t = tiles.get(tile);
+        if (t != null) {
+            t.dirty = 0;
+        }
+    }
+
+    /**
+     * Keep the image of a tile, dropping the least recently used tiles if
+     * the budget is exceeded
+     */
+    void put(int tile, BufferedImage image, Font font, int x, int lineHeight) {
+        remove(tile);
+        tiles.put(tile, new Tile(image, font, x, lineHeight));
+        bytes += sizeOf(image);
+        Iterator<Tile> it = tiles.values().iterator();
+        // keep at least the tile just drawn
+        while (bytes > maxBytes && tiles.size() > 1) {
+            bytes -= sizeOf(it.next().image);
+            it.remove();
+        }
+    }
+
+    /**
+     * Mark the lines from and to (inclusive) dirty, after they changed
+     * @param from
+     * @param to
+     */
+    void invalidate(int from, int to) {
+        // the map is in access order, so get would reorder it
+        for (Map.Entry<Integer, Tile> e : tiles.entrySet()) {
+            int first = e.getKey() * TILE_LINES;
+            int lo = Math.max(from, first) - first;
+            int hi = Math.min(to, first + TILE_LINES - 1) - first;
+            if (lo <= hi) {
+                e.getValue().dirty |= (-1 >>> (31 - hi + lo)) << lo;
+            }
+        }
+    }
+
+    /**
+     * Drop the tiles of the lines from line on, after lines were added or
+     * removed there
+     * @param line
+     */
+    void invalidateFrom(int line) {
+        int first = line / TILE_LINES;
+        for (Iterator<Map.Entry<Integer, Tile>> it = tiles.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Integer, Tile> e = it.next();
+            if (first <= e.getKey()) {
+                bytes -= sizeOf(e.getValue().image);
+                it.remove();
+            }
+        }
+    }
+
+    private void remove(int tile) {
+        Tile t = tiles.remove(tile);
+        if (t != null) {
+            bytes -= sizeOf(t.image);
+        }
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return sizeOf(image.getWidth(), image.getHeight());
+    }
+
+    private static long sizeOf(int width, int height) {
+        return 4L * width * height;
+    }
+}
@@ -24,6 +24,7 @@ import jsyntaxpane.util.Configuration;
  */
 public class MinimalSyntaxEditorKit extends DefaultEditorKit implements ViewFactory {
     private final Lexer lexer;
+    private final LexerPool lexers;
     private final Configuration configuration;
 
     public MinimalSyntaxEditorKit(Lexer lexer) {
@@ -40,10 +41,37 @@ public class MinimalSyntaxEditorKit extends DefaultEditorKit implements ViewFact
         }
         this.lexer = lexer;
         this.configuration = configuration; 
+        // give each document its own lexer, if we know how to create them.
+        // the given lexer is not pooled, as the caller may still use it
+        if (LexerPool.canCreate(lexer.getClass())) {
+            this.lexers = LexerPool.forClass(lexer.getClass());
+        } else {
+            this.lexers = null;
+        }
+    }
+
+    public MinimalSyntaxEditorKit(LexerFactory lexerFactory) {
+        this(lexerFactory, createDefaultConfiguration());
+    }
+
+    public MinimalSyntaxEditorKit(LexerFactory lexerFactory, Configuration configuration) {
+        super();
+        if (lexerFactory == null) {
+            throw new IllegalArgumentException("lexerFactory cannot be null");
+        }
+        if (configuration == null) {
+            throw new IllegalArgumentException("configuration cannot be null");
+        }
+        this.lexer = null;
+        this.lexers = new LexerPool(lexerFactory);
+        this.configuration = configuration; 
     }
     
     @Override
     public Document createDefaultDocument() {
+        if (this.lexers != null) {
+            return new SyntaxDocument(this.lexers);
+        }
         return new SyntaxDocument(this.lexer);
     }
     
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The start positions of the tokens of some TokenTypes, by their text.
+ *
+ * Edits of the text are only logged when they happen.  The positions of a
+ * text are moved to follow the logged edits when they are next used, so an
+ * edit costs the same however many tokens there are.
+ * Positions are added for new tokens, but not removed for old ones: the
+ * SyntaxDocument checks the positions against its tokens when it uses
+ * them, and removes the ones that are no longer valid.
+ */
+final class OccurrenceIndex {
+
+	/**
+	 * Number of logged edits after which all positions are brought up to
+	 * date, and the log is cleared
+	 */
+	static final int MAX_EDITS = 256;
+	private final Set<TokenType> types;
+	private final Map<String, Occurrences> map = new HashMap<String, Occurrences>();
+	// the logged edits: positions from editFrom to editTo were removed, and
+	// positions from editTo on moved by editDelta
+	private int[] editFrom = new int[16];
+	private int[] editTo = new int[16];
+	private int[] editDelta = new int[16];
+	private int edits;
+	/**
+	 * Number of edits before the first one in the log
+	 */
+	private int base;
+	private int size;
+
+	private static final class Occurrences {
+
+		final IntGapBuffer starts = new IntGapBuffer(4);
+		/**
+		 * Number of edits the starts follow
+		 */
+		int edit;
+	}
+
+	OccurrenceIndex(Set<TokenType> types) {
+		this.types = types.isEmpty() ? EnumSet.noneOf(TokenType.class) : EnumSet.copyOf(types);
+	}
+
+	Set<TokenType> getTypes() {
+		return types;
+	}
+
+	/**
+	 * @return number of positions in the index, including invalid ones
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Log an edit: the text from offset to offset + removed was replaced by
+	 * inserted chars.
+	 * @param offset
+	 * @param removed
+	 * @param inserted
+	 */
+	void edit(int offset, int removed, int inserted) {
+		if (edits == MAX_EDITS) {
+			for (Occurrences o : map.values()) {
+				update(o);
+			}
+			base += edits;
+			edits = 0;
+		}
+		if (edits == editFrom.length) {
+			editFrom = grow(editFrom);
+			editTo = grow(editTo);
+			editDelta = grow(editDelta);
+		}
+		editFrom[edits] = offset;
+		editTo[edits] = offset + removed;
+		editDelta[edits] = inserted - removed;
+		edits++;
+	}
+
+	/**
+	 * Add the position of a token, unless it is already there
+	 * @param text
+	 * @param start
+	 */
+	void add(String text, int start) {
+		Occurrences o = map.get(text);
+		if (o == null) {
+			o = new Occurrences();
+			o.edit = base + edits;
+			map.put(text, o);
+		} else {
+			update(o);
+		}
+		int ndx = search(o.starts, start);
+		if (ndx < 0) {
+			o.starts.insert(-ndx - 1, start);
+			size++;
+		}
+	}
+
+	/**
+	 * Get the sorted positions of the tokens with the given text.  Invalid
+	 * positions should be removed with {@link #remove(String, int)}.
+	 * @param text
+	 * @return the positions, or null if there are none
+	 */
+	IntGapBuffer get(String text) {
+		Occurrences o = map.get(text);
+		if (o == null) {
+			return null;
+		}
+		update(o);
+		return o.starts;
+	}
+
+	/**
+	 * Remove the position at index ndx of the positions of text
+	 * @param text
+	 * @param ndx
+	 */
+	void remove(String text, int ndx) {
+		Occurrences o = map.get(text);
+		o.starts.remove(ndx, ndx + 1);
+		size--;
+		if (o.starts.size() == 0) {
+			map.remove(text);
+		}
+	}
+
+	/**
+	 * Apply the logged edits the occurrences do not follow yet
+	 */
+	private void update(Occurrences o) {
+		IntGapBuffer starts = o.starts;
+		for (int e = o.edit - base; e < edits; e++) {
+			int from = search(starts, editFrom[e]);
+			from = (from < 0) ? -from - 1 : from;
+			int to = search(starts, editTo[e]);
+			to = (to < 0) ? -to - 1 : to;
+			if (to > from) {
+				starts.remove(from, to);
+				size -= to - from;
+			}
+			if (editDelta[e] != 0 && from < starts.size()) {
+				starts.shift(from, editDelta[e]);
+			}
+		}
+		o.edit = base + edits;
+	}
+
+	private static int search(IntGapBuffer starts, int start) {
+		int low = 0;
+		int high = starts.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = starts.get(mid) - start;
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private static int[] grow(int[] a) {
+		int[] result = new int[a.length * 2];
+		System.arraycopy(a, 0, result, 0, a.length);
+		return result;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.text.Segment;
+
+/**
+ * Lexes a large text in parallel.  The text is split into chunks at line
+ * starts, and each chunk is lexed by its own StatefulLexer, guessing that
+ * the lexer is in its initial state at the start of the chunk.
+ *
+ * The chunks are then joined in order.  Lexing of each chunk runs a bit
+ * past its end, to the first token boundary, and the lexer state there is
+ * compared with the checkpoint the next chunk recorded at the same place.
+ * If they match, the guess was right and the next chunk's tokens are used
+ * as they are.  If not (say the chunk started inside a comment), the seam
+ * is lexed again from the known state until it reaches a checkpoint of the
+ * next chunk with the same state, in the same way SyntaxDocument re-lexes
+ * an edit.  The result is the same as lexing the whole text in one go.
+ */
+final class ParallelLexer {
+
+	/**
+	 * Minimum number of chars in one chunk
+	 */
+	static final int MIN_CHUNK = 256 * 1024;
+	private static final Logger log = Logger.getLogger(ParallelLexer.class.getName());
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static ThreadPoolExecutor executor;
+	private final LexerPool lexers;
+	private final int chunkSize;
+	/**
+	 * furthest position examined by the lexers so far, while joining chunks
+	 */
+	private int extent;
+
+	/**
+	 * Result of lexing one chunk
+	 */
+	private class Chunk implements Callable<Chunk> {
+
+		final Segment text;
+		final int start;
+		final int end;
+		final TokenStore toks = new TokenStore();
+		final LexerCheckpoints cps = new LexerCheckpoints();
+		/**
+		 * where lexing stopped, the first token boundary at or after end
+		 */
+		int stop;
+		/**
+		 * state at stop, null if lexing reached the end of the text
+		 */
+		Object stopState;
+		int extent;
+
+		Chunk(Segment text, int start, int end) {
+			this.text = text;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Chunk call() {
+			StatefulLexer sl = (StatefulLexer) lexers.borrow();
+			try {
+				Segment seg = new Segment(text.array, text.offset + start, text.count - start);
+				sl.start(seg, start, null);
+				if (start == 0) {
+					cps.add(0, 0, 0, sl.getState());
+				}
+				// record a checkpoint at the first token boundary, that is
+				// where the previous chunk will stop
+				int next = start;
+				stop = text.count;
+				for (Token t = sl.nextToken(); t != null; t = sl.nextToken()) {
+					toks.add(t);
+					int pos = sl.getPosition();
+					extent = Math.max(extent, sl.getExtent());
+					if (pos >= end) {
+						stop = pos;
+						stopState = sl.getState();
+						break;
+					}
+					if (pos >= next) {
+						cps.add(pos, extent, toks.size(), sl.getState());
+						next = SyntaxDocument.nextCheckpoint(text, 0, pos);
+					}
+				}
+			} finally {
+				lexers.release(sl);
+			}
+			return this;
+		}
+	}
+
+	ParallelLexer(LexerPool lexers, int chunkSize) {
+		this.lexers = lexers;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Check if it is worth lexing the given number of chars in parallel
+	 * @param length
+	 * @return
+	 */
+	static boolean isUseful(int length) {
+		return THREADS > 1 && length >= 2 * MIN_CHUNK;
+	}
+
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(THREADS, THREADS, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "jsyntaxpane-parallel-lexer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * Lex the whole text, adding the tokens and checkpoints to the given
+	 * empty stores.
+	 * @param text
+	 * @param toks
+	 * @param cps
+	 * @return false if the lexers of the pool cannot be lexed in parallel,
+	 * in which case nothing was added.
+	 */
+	boolean lex(Segment text, TokenStore toks, LexerCheckpoints cps) {
+		Lexer lexer = lexers.borrow();
+		boolean restartable = (lexer instanceof StatefulLexer) &&
+			((StatefulLexer) lexer).getExtent() != Integer.MAX_VALUE;
+		lexers.release(lexer);
+		if (!restartable) {
+			return false;
+		}
+		long ts = System.nanoTime();
+		List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+		int start = 0;
+		while (start < text.count) {
+			int end = (text.count - start < 2 * chunkSize) ? text.count
+				: SyntaxDocument.nextCheckpoint(text, 0, start + chunkSize);
+			futures.add(getExecutor().submit(new Chunk(text, start, end)));
+			start = end;
+		}
+		int seams = 0;
+		extent = 0;
+		try {
+			int stop = 0;
+			Object stopState = null;
+			for (int i = 0; i < futures.size(); i++) {
+				Chunk chunk = futures.get(i).get();
+				if (i == 0) {
+					adopt(chunk, 0, toks, cps);
+				} else if (stopState == null) {
+					// the previous chunk already lexed to the end
+					break;
+				} else {
+					int k = chunk.cps.find(stop, 0);
+					if (k < 0 || !stopState.equals(chunk.cps.getState(k))) {
+						// the guessed start state was wrong
+						seams++;
+						k = relexSeam(text, chunk, stop, stopState, toks, cps);
+					}
+					if (k >= 0) {
+						adopt(chunk, k, toks, cps);
+					}
+				}
+				stop = chunk.stop;
+				stopState = chunk.stopState;
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause());
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest(String.format("Lexed %d in %d chunks in %d ms, re-lexing %d seams\n",
+				text.count, futures.size(), (System.nanoTime() - ts) / 1000000, seams));
+		}
+		return true;
+	}
+
+	/**
+	 * Add the tokens and checkpoints of the chunk from its checkpoint k
+	 */
+	private void adopt(Chunk chunk, int k, TokenStore toks, LexerCheckpoints cps) {
+		int first = (k < chunk.cps.size()) ? chunk.cps.getTokenCount(k) : 0;
+		int base = toks.size() - first;
+		for (int i = k; i < chunk.cps.size(); i++) {
+			extent = Math.max(extent, chunk.cps.getExtent(i));
+			cps.add(chunk.cps.getPosition(i), extent, base + chunk.cps.getTokenCount(i),
+				chunk.cps.getState(i));
+		}
+		toks.addAll(chunk.toks, first, chunk.toks.size());
+		extent = Math.max(extent, chunk.extent);
+	}
+
+	/**
+	 * Lex from the place where the previous chunk stopped, until reaching a
+	 * checkpoint of the chunk in the same state.  If the chunk end is
+	 * reached first, its stop and stopState are replaced by the ones found
+	 * here.
+	 * @return the index of the checkpoint of the chunk to continue from, or
+	 * -1 if the whole chunk has been lexed again
+	 */
+	private int relexSeam(Segment text, Chunk chunk, int start, Object state,
+		TokenStore toks, LexerCheckpoints cps) {
+		StatefulLexer sl = (StatefulLexer) lexers.borrow();
+		try {
+			Segment seg = new Segment(text.array, text.offset + start, text.count - start);
+			sl.start(seg, start, state);
+			int next = SyntaxDocument.nextCheckpoint(text, 0, start);
+			int old = 0;
+			for (Token t = sl.nextToken(); t != null; t = sl.nextToken()) {
+				toks.add(t);
+				int pos = sl.getPosition();
+				extent = Math.max(extent, sl.getExtent());
+				Object current = sl.getState();
+				int k = chunk.cps.find(pos, old);
+				if (k >= 0) {
+					if (current.equals(chunk.cps.getState(k))) {
+						return k;
+					}
+					old = k + 1;
+				} else {
+					old = -k - 1;
+				}
+				if (pos >= chunk.end) {
+					chunk.stop = pos;
+					chunk.stopState = current;
+					return -1;
+				}
+				if (pos >= next) {
+					cps.add(pos, extent, toks.size(), current);
+					next = SyntaxDocument.nextCheckpoint(text, 0, pos);
+				}
+			}
+			chunk.stop = text.count;
+			chunk.stopState = null;
+			return -1;
+		} finally {
+			lexers.release(sl);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License 
+ *       at http://www.apache.org/licenses/LICENSE-2.0 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.  
+ */
+package jsyntaxpane;
+
+import javax.swing.text.Segment;
+
+/**
+ * A Lexer that can be stopped after any token and later resumed from a
+ * saved state, anywhere in the document.  This allows the SyntaxDocument
+ * to only re-lex the part of the text that changed.
+ *
+ * Lexers that implement this return their tokens one at a time:
+ * {@link #start} is called with the text and the state to start in,
+ * then {@link #nextToken()} is called until it returns null.
+ * Between tokens, {@link #getState()} can be called to save the state.
+ *
+ * All the JFlex lexers (extending DefaultJFlexLexer) implement this.
+ */
+public interface StatefulLexer extends Lexer {
+
+    /**
+     * Prepare the lexer to return the tokens of the given segment.
+     * @param segment Text to parse.
+     * @param ofst offset to add to start of each token
+     * @param state state to start in, as returned by {@link #getState()}
+     * at offset ofst, or null to start in the initial state
+     */
+    public void start(Segment segment, int ofst, Object state);
+
+    /**
+     * Return the next Token from the segment passed to {@link #start}.
+     * @return next token, or null if no more tokens.
+     */
+    public Token nextToken();
+
+    /**
+     * Return the position (offset added) of the first character that has not
+     * been consumed by the lexer yet.  This is where lexing continues on
+     * the next call to {@link #nextToken()}, and where the lexer can be
+     * restarted with the value of {@link #getState()}.
+     * @return
+     */
+    public int getPosition();
+
+    /**
+     * Return the position (offset added) up to which the input has been
+     * examined so far, including any lookahead beyond the consumed text.
+     * Changes to the text at or after this position must not alter the
+     * tokens returned so far, nor the current state.  A lexer that cannot
+     * tell should return Integer.MAX_VALUE, it will then never be resumed.
+     * @return
+     */
+    public int getExtent();
+
+    /**
+     * Return the state of the lexer at {@link #getPosition()}.
+     * The returned value must be immutable, and must not depend on the
+     * position in the document, so that equal states at equal text give
+     * equal tokens.  It must implement equals and hashCode.
+     * @return
+     */
+    public Object getState();
+
+    /**
+     * Write a state returned from {@link #getState()} as ints, so it can be
+     * stored outside the lexer, as in a TokenCache.
+     * @param state
+     * @return the values of the state, or null if it cannot be written
+     */
+    public int[] encodeState(Object state);
+
+    /**
+     * Rebuild a state from the values returned by {@link #encodeState}.
+     * The values may have been read from a file, so they must be checked.
+     * @param values
+     * @return the state
+     * @throws IllegalArgumentException if the values are not a valid state
+     */
+    public Object decodeState(int[] values);
+}
@@ -13,11 +13,13 @@
  */
 package jsyntaxpane;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -39,8 +41,55 @@ import javax.swing.text.Segment;
 public class SyntaxDocument extends PlainDocument {
 
 	Lexer lexer;
-	List<Token> tokens;
+	/**
+	 * Pool to borrow a lexer from for each parse, used instead of lexer
+	 */
+	LexerPool lexers;
+	TokenStore tokens;
 	CompoundUndoMan undo;
+	/**
+	 * Restart points for incremental lexing.  Only maintained for
+	 * StatefulLexers that report how far they examined the text.
+	 */
+	LexerCheckpoints checkpoints = new LexerCheckpoints();
+	/**
+	 * Incremented on every change of the text, so results of background
+	 * lexing can be checked against the text they were made from.
+	 */
+	private volatile int version;
+	/**
+	 * Background lexer, or null when lexing is done on every change
+	 */
+	private LexerWorker worker;
+	/**
+	 * Set while firing the change event for newly published tokens, so
+	 * the document is not lexed again
+	 */
+	private boolean publishing;
+	/**
+	 * Cache of the tokens of texts loaded into this document, or null
+	 */
+	private volatile TokenCache tokenCache;
+	/**
+	 * True from the insert of the text into an empty document until that
+	 * text is lexed, so only loaded texts go through the token cache
+	 */
+	private volatile boolean loaded;
+	/**
+	 * Positions of the tokens asked for by getOccurrences, by their text.
+	 * Null until first used, and after the tokens are replaced at once.
+	 */
+	private OccurrenceIndex occurrences;
+	/**
+	 * First token of each line.  Null until first used, and when the
+	 * tokens are replaced at once.
+	 */
+	private LineIndex lines;
+	/**
+	 * The last change of the tokens, fired to the TokenChangeListeners
+	 * after the document listeners.  Views read it meanwhile to repaint.
+	 */
+	private TokenChangeEvent tokenChange;
 
 	public SyntaxDocument(Lexer lexer) {
 		super();
@@ -50,6 +99,33 @@ public class SyntaxDocument extends PlainDocument {
 		undo = new CompoundUndoMan(this);
 	}
 
+	/**
+	 * Create a document that borrows a lexer from the given pool whenever
+	 * it needs to lex its text, so it never shares a lexer with other
+	 * documents lexing at the same time.
+	 * @param lexers
+	 */
+	public SyntaxDocument(LexerPool lexers) {
+		this((Lexer) null);
+		this.lexers = lexers;
+	}
+
+	/**
+	 * Get a lexer to use for one parse.  Must be given back with
+	 * {@link #releaseLexer(jsyntaxpane.Lexer)}
+	 * @return the lexer, or null if this document has none
+	 */
+	private Lexer borrowLexer() {
+		return (lexers != null) ? lexers.borrow() : lexer;
+	}
+
+	private void releaseLexer(Lexer lx) {
+		if (lexers != null && lx != null) {
+			lexers.release(lx);
+		}
+	}
+
+
 	/**
 	 * Parse the entire document and return list of tokens that do not already
 	 * exist in the tokens list.  There may be overlaps, and replacements,
@@ -58,17 +134,21 @@ public class SyntaxDocument extends PlainDocument {
 	 */
 	private void parse() {
 		// if we have no lexer, then we must have no tokens...
-		if (lexer == null) {
+		if (lexer == null && lexers == null) {
 			tokens = null;
+			checkpoints.clear();
 			return;
 		}
-		List<Token> toks = new ArrayList<Token>(getLength() / 10);
+		TokenStore toks = new TokenStore(getLength() / 10);
 		long ts = System.nanoTime();
 		int len = getLength();
+		int oldCount = (tokens == null) ? 0 : tokens.size();
 		try {
 			Segment seg = new Segment();
 			getText(0, getLength(), seg);
-			lexer.parse(seg, 0, toks);
+			checkpoints.clear();
+			lex(seg, toks, checkpoints, version, loaded);
+			loaded = false;
 		} catch (BadLocationException ex) {
 			log.log(Level.SEVERE, null, ex);
 		} finally {
@@ -77,25 +157,438 @@ public class SyntaxDocument extends PlainDocument {
 					len, (System.nanoTime() - ts) / 1000000, toks.size()));
 			}
 			tokens = toks;
+			occurrences = null;
+			lines = null;
+			tokensChanged(0, oldCount, toks.size(), 0, len);
+		}
+	}
+
+	/**
+	 * Lex the whole text, and for StatefulLexers record the checkpoints
+	 * where lexing can later be restarted.
+	 * StatefulLexers give up early if the document changes meanwhile.
+	 * Very large documents with pooled lexers are lexed in parallel chunks.
+	 * @param seg the text of the document
+	 * @param toks store to add the tokens to
+	 * @param cps empty checkpoints to add to
+	 * @param ver version of the document the text is from
+	 * @param loaded true if the text was loaded into an empty document, in
+	 * which case the tokens are taken from, or added to, the TokenCache
+	 * @return false if lexing was stopped because the document changed
+	 */
+	boolean lex(Segment seg, TokenStore toks, LexerCheckpoints cps, int ver, boolean loaded) {
+		TokenCache cache = tokenCache;
+		File cached = null;
+		if (loaded && cache != null && seg.count >= cache.getMinLength()) {
+			Lexer lx = borrowLexer();
+			try {
+				if (lx != null) {
+					cached = cache.getFile(lx.getClass(), seg);
+					if (cache.load(cached, seg, statefulOrNull(lx), toks, cps)) {
+						return true;
+					}
+				}
+			} finally {
+				releaseLexer(lx);
+			}
+		}
+		boolean done = lex(seg, toks, cps, ver);
+		if (done && cached != null) {
+			Lexer lx = borrowLexer();
+			try {
+				cache.store(cached, seg, statefulOrNull(lx), toks, cps);
+			} finally {
+				releaseLexer(lx);
+			}
+		}
+		return done;
+	}
+
+	private static StatefulLexer statefulOrNull(Lexer lx) {
+		return (lx instanceof StatefulLexer) ? (StatefulLexer) lx : null;
+	}
+
+	private boolean lex(Segment seg, TokenStore toks, LexerCheckpoints cps, int ver) {
+		if (lexers != null && ParallelLexer.isUseful(seg.count)
+			&& new ParallelLexer(lexers, ParallelLexer.MIN_CHUNK).lex(seg, toks, cps)) {
+			return true;
+		}
+		Lexer lx = borrowLexer();
+		if (lx == null) {
+			return true;
+		}
+		try {
+			return lex(lx, seg, toks, cps, ver);
+		} finally {
+			releaseLexer(lx);
+		}
+	}
+
+	private boolean lex(Lexer lx, Segment seg, TokenStore toks, LexerCheckpoints cps, int ver) {
+		if (!(lx instanceof StatefulLexer)) {
+			List<Token> list = new ArrayList<Token>(seg.count / 10);
+			lx.parse(seg, 0, list);
+			toks.addAll(list);
+			return true;
+		}
+		StatefulLexer sl = (StatefulLexer) lx;
+		sl.start(seg, 0, null);
+		// if the lexer cannot tell us how far it examined the text, then we
+		// cannot safely restart it, and will not record any checkpoints.
+		boolean restartable = sl.getExtent() != Integer.MAX_VALUE;
+		if (restartable) {
+			cps.add(0, 0, 0, sl.getState());
+		}
+		int next = nextCheckpoint(seg, 0, 0);
+		int extent = 0;
+		for (Token t = sl.nextToken(); t != null; t = sl.nextToken()) {
+			toks.add(t);
+			int pos = sl.getPosition();
+			extent = Math.max(extent, sl.getExtent());
+			if (restartable && pos >= next) {
+				cps.add(pos, extent, toks.size(), sl.getState());
+				next = nextCheckpoint(seg, 0, pos);
+			}
+			if ((toks.size() & 0x3ff) == 0 && ver != version) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Re-lex the document after the text at offset changed: removed
+	 * characters were replaced by inserted characters.
+	 * Lexing restarts from the last checkpoint that is not affected by the
+	 * change, and stops as soon as the lexer reaches one of the old
+	 * checkpoints past the change in the same state, as from there on the
+	 * old tokens are still valid.  Only the tokens in between are replaced.
+	 * If the lexer cannot be restarted, the whole document is parsed.
+	 * @param offset
+	 * @param removed
+	 * @param inserted
+	 */
+	private void parse(int offset, int removed, int inserted) {
+		int c = checkpoints.findRestart(offset);
+		if (tokens == null || c < 0) {
+			parse();
+			return;
+		}
+		StatefulLexer sl = (StatefulLexer) borrowLexer();
+		long ts = System.nanoTime();
+		int delta = inserted - removed;
+		int editEnd = offset + inserted;
+		int restart = checkpoints.getPosition(c);
+		int keep = checkpoints.getTokenCount(c);
+		int extent = checkpoints.getExtent(c);
+		// by default, we will relex up to the end of the document
+		int resume = checkpoints.size();
+		TokenStore relexed = new TokenStore();
+		LexerCheckpoints newCheckpoints = new LexerCheckpoints();
+		try {
+			Segment seg = new Segment();
+			getText(restart, getLength() - restart, seg);
+			sl.start(seg, restart, checkpoints.getState(c));
+			int next = nextCheckpoint(seg, restart, restart);
+			int old = c + 1;
+			for (Token t = sl.nextToken(); t != null; t = sl.nextToken()) {
+				relexed.add(t);
+				int pos = sl.getPosition();
+				extent = Math.max(extent, sl.getExtent());
+				Object state = null;
+				if (pos >= editEnd) {
+					// past the change: if the old lexer was at the same place
+					// in the same state, then everything after it is unchanged.
+					int found = checkpoints.find(pos - delta, old);
+					if (found >= 0) {
+						state = sl.getState();
+						if (state.equals(checkpoints.getState(found))) {
+							resume = found;
+							break;
+						}
+						old = found + 1;
+					} else {
+						old = -found - 1;
+					}
+				}
+				if (pos >= next) {
+					if (state == null) {
+						state = sl.getState();
+					}
+					newCheckpoints.add(pos, extent, keep + relexed.size(), state);
+					next = nextCheckpoint(seg, restart, pos);
+				}
+			}
+		} catch (BadLocationException ex) {
+			log.log(Level.SEVERE, null, ex);
+			parse();
+			return;
+		} finally {
+			releaseLexer(sl);
+		}
+		int resumeToken = (resume < checkpoints.size()) ? checkpoints.getTokenCount(resume) : tokens.size();
+		tokens.replace(keep, resumeToken, relexed);
+		if (delta != 0) {
+			tokens.shift(keep + relexed.size(), delta);
+		}
+		if (occurrences != null) {
+			addOccurrences(relexed, 0, relexed.size());
+		}
+		int end = relexed.isEmpty() ? editEnd : Math.max(editEnd, relexed.getEnd(relexed.size() - 1));
+		if (lines != null) {
+			Element root = getDefaultRootElement();
+			lines.update(root, tokens, root.getElementIndex(restart), root.getElementIndex(end),
+				relexed.size() - (resumeToken - keep));
+		}
+		// a token may have started before the checkpoint it was resumed from
+		tokensChanged(keep, resumeToken - keep, relexed.size(),
+			relexed.isEmpty() ? restart : Math.min(restart, relexed.getStart(0)), end);
+		checkpoints.splice(c + 1, newCheckpoints, resume, delta, extent,
+			relexed.size() - (resumeToken - keep));
+		if (log.isLoggable(Level.FINEST)) {
+			log.finest(String.format("Relexed %d tokens from %d in %d ms, replacing %d tokens\n",
+				relexed.size(), restart, (System.nanoTime() - ts) / 1000000, resumeToken - keep));
+		}
+	}
+
+	/**
+	 * Find the position from which the next checkpoint may be recorded:
+	 * the start of the line following pos, but no further than
+	 * LexerCheckpoints.MAX_SPAN characters.
+	 * @param seg text being lexed
+	 * @param segStart document position of the start of seg
+	 * @param pos position of the last checkpoint
+	 * @return
+	 */
+	static int nextCheckpoint(Segment seg, int segStart, int pos) {
+		int i = pos - segStart;
+		int limit = Math.min(seg.count, i + LexerCheckpoints.MAX_SPAN);
+		for (; i < limit; i++) {
+			if (seg.array[seg.offset + i] == '\n') {
+				return segStart + i + 1;
+			}
+		}
+		return segStart + limit;
+	}
+
+	/**
+	 * Until the background lexer is done, keep the tokens before the change,
+	 * drop the ones overlapping it, and move the ones after it.
+	 * @param offset
+	 * @param removed
+	 * @param inserted
+	 */
+	private void shiftTokens(int offset, int removed, int inserted) {
+		if (tokens == null) {
+			return;
+		}
+		int delta = inserted - removed;
+		int end = offset + removed;
+		int ndx = tokens.search(offset, 0, TokenType.OPERATOR);
+		ndx = (ndx < 0) ? -ndx - 1 : ndx;
+		// the previous token may extend into the change
+		if (ndx > 0 && tokens.getEnd(ndx - 1) > offset) {
+			ndx--;
+		}
+		int from = ndx;
+		while (ndx < tokens.size() && tokens.getStart(ndx) < end) {
+			ndx++;
+		}
+		tokens.remove(from, ndx);
+		if (delta != 0) {
+			tokens.shift(from, delta);
+		}
+		lines = null;
+		tokensChanged(from, ndx - from, 0, offset, offset + inserted);
+	}
+
+	/**
+	 * Turn background lexing on or off.  When on, changes to the document
+	 * are lexed in a separate thread against a copy of the text, and the
+	 * new tokens replace the old ones at once on the event dispatch thread,
+	 * followed by a change event.  Until then the old tokens are used, moved
+	 * to follow the edits.
+	 * This keeps the UI responsive with very large documents.
+	 * @param async
+	 */
+	public void setAsyncLexing(boolean async) {
+		if (async == (worker != null)) {
+			return;
+		}
+		if (async) {
+			checkpoints.clear();
+			worker = new LexerWorker(this);
+			worker.schedule();
+		} else {
+			worker.shutdown();
+			worker = null;
+			version++;
+			parse();
+			fireTokensChanged();
+		}
+	}
+
+	/**
+	 * @return true if the document is lexed in a background thread
+	 */
+	public boolean isAsyncLexing() {
+		return worker != null;
+	}
+
+	/**
+	 * Use the given cache for the tokens of large texts loaded into this
+	 * document, so they are not lexed again the next time they are loaded.
+	 * @param cache the cache, or null to not use one
+	 */
+	public void setTokenCache(TokenCache cache) {
+		this.tokenCache = cache;
+	}
+
+	public TokenCache getTokenCache() {
+		return tokenCache;
+	}
+
+	/**
+	 * Get a copy of the current text, along with its version.
+	 * Called from the background lexer.
+	 * @return
+	 */
+	LexerWorker.Snapshot snapshot() {
+		final LexerWorker.Snapshot[] result = new LexerWorker.Snapshot[1];
+		render(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					result[0] = new LexerWorker.Snapshot(version, getText(0, getLength()),
+						loaded);
+					loaded = false;
+				} catch (BadLocationException ex) {
+					log.log(Level.SEVERE, null, ex);
+				}
+			}
+		});
+		return result[0];
+	}
+
+	/**
+	 * Replace the tokens with the ones lexed in the background, unless the
+	 * document changed since.  Must be called on the event dispatch thread.
+	 * @param ver version of the text that was lexed
+	 * @param toks
+	 * @param cps
+	 */
+	void publish(int ver, TokenStore toks, LexerCheckpoints cps) {
+		writeLock();
+		try {
+			if (ver != version || worker == null) {
+				return;
+			}
+			int oldCount = (tokens == null) ? 0 : tokens.size();
+			tokens = toks;
+			checkpoints = cps;
+			occurrences = null;
+			lines = null;
+			tokensChanged(0, oldCount, toks.size(), 0, getLength());
+			publishing = true;
+			fireChangedUpdate(new DefaultDocumentEvent(0, getLength(),
+				DocumentEvent.EventType.CHANGE));
+		} finally {
+			publishing = false;
+			writeUnlock();
 		}
 	}
 
 	@Override
 	protected void fireChangedUpdate(DocumentEvent e) {
-		parse();
+		if (!publishing) {
+			if (worker != null) {
+				version++;
+				worker.schedule();
+			} else {
+				parse();
+			}
+		}
 		super.fireChangedUpdate(e);
+		fireTokensChanged();
 	}
 
 	@Override
 	protected void fireInsertUpdate(DocumentEvent e) {
-		parse();
+		version++;
+		loaded = e.getLength() == getLength();
+		if (occurrences != null) {
+			occurrences.edit(e.getOffset(), 0, e.getLength());
+		}
+		if (worker != null) {
+			shiftTokens(e.getOffset(), 0, e.getLength());
+			worker.schedule();
+		} else {
+			parse(e.getOffset(), 0, e.getLength());
+		}
 		super.fireInsertUpdate(e);
+		fireTokensChanged();
 	}
 
 	@Override
 	protected void fireRemoveUpdate(DocumentEvent e) {
-		parse();
+		version++;
+		loaded = false;
+		if (occurrences != null) {
+			occurrences.edit(e.getOffset(), e.getLength(), 0);
+		}
+		if (worker != null) {
+			shiftTokens(e.getOffset(), e.getLength(), 0);
+			worker.schedule();
+		} else {
+			parse(e.getOffset(), e.getLength(), 0);
+		}
 		super.fireRemoveUpdate(e);
+		fireTokensChanged();
+	}
+
+	/**
+	 * Add a listener that is notified when tokens are replaced.  Listeners
+	 * are notified after the DocumentListeners of the change, if any.
+	 * @param listener
+	 */
+	public void addTokenChangeListener(TokenChangeListener listener) {
+		listenerList.add(TokenChangeListener.class, listener);
+	}
+
+	public void removeTokenChangeListener(TokenChangeListener listener) {
+		listenerList.remove(TokenChangeListener.class, listener);
+	}
+
+	/**
+	 * Record a change of the tokens, to be fired once the document
+	 * listeners were notified
+	 */
+	private void tokensChanged(int index, int removed, int added, int start, int end) {
+		tokenChange = new TokenChangeEvent(this, index, removed, added, start, end);
+	}
+
+	/**
+	 * Get the change of the tokens made for the change of the document
+	 * that is being notified to the DocumentListeners.
+	 * @return the change, or null if the tokens did not change
+	 */
+	TokenChangeEvent getTokenChange() {
+		return tokenChange;
+	}
+
+	private void fireTokensChanged() {
+		TokenChangeEvent e = tokenChange;
+		tokenChange = null;
+		if (e == null || listenerList.getListenerCount(TokenChangeListener.class) == 0) {
+			return;
+		}
+		Object[] listeners = listenerList.getListenerList();
+		for (int i = listeners.length - 2; i >= 0; i -= 2) {
+			if (listeners[i] == TokenChangeListener.class) {
+				((TokenChangeListener) listeners[i + 1]).tokensChanged(e);
+			}
+		}
 	}
 
 	/**
@@ -121,26 +614,10 @@ public class SyntaxDocument extends PlainDocument {
 		int end;
 		int ndx = 0;
 
-		@SuppressWarnings("unchecked")
 		private TokenIterator(int start, int end) {
 			this.start = start;
 			this.end = end;
-			if (tokens != null && !tokens.isEmpty()) {
-				Token token = new Token(TokenType.COMMENT, start, end - start);
-				ndx = Collections.binarySearch((List) tokens, token);
-				// we will probably not find the exact token...
-				if (ndx < 0) {
-					// so, start from one before the token where we should be...
-					// -1 to get the location, and another -1 to go back..
-					ndx = (-ndx - 1 - 1 < 0) ? 0 : (-ndx - 1 - 1);
-					Token t = tokens.get(ndx);
-					// if the prev token does not overlap, then advance one
-					if (t.end() <= start) {
-						ndx++;
-					}
-
-				}
-			}
+			ndx = getFirstTokenIndex(start, end);
 		}
 
 		@Override
@@ -151,8 +628,7 @@ public class SyntaxDocument extends PlainDocument {
 			if (ndx >= tokens.size()) {
 				return false;
 			}
-			Token t = tokens.get(ndx);
-			if (t.start >= end) {
+			if (tokens.getStart(ndx) >= end) {
 				return false;
 			}
 			return true;
@@ -176,8 +652,7 @@ public class SyntaxDocument extends PlainDocument {
 			if (ndx <= 0) {
 				return false;
 			}
-			Token t = tokens.get(ndx);
-			if (t.end() <= start) {
+			if (tokens.getEnd(ndx) <= start) {
 				return false;
 			}
 			return true;
@@ -209,6 +684,62 @@ public class SyntaxDocument extends PlainDocument {
 		}
 	}
 
+	/**
+	 * Return the index in the tokens store of the first token overlapping
+	 * the range from start to end, or of the token following it.
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	int getFirstTokenIndex(int start, int end) {
+		int ndx = 0;
+		if (tokens != null && !tokens.isEmpty()) {
+			ndx = tokens.search(start, end - start, TokenType.COMMENT);
+			// we will probably not find the exact token...
+			if (ndx < 0) {
+				// so, start from one before the token where we should be...
+				// -1 to get the location, and another -1 to go back..
+				ndx = (-ndx - 1 - 1 < 0) ? 0 : (-ndx - 1 - 1);
+				// if the prev token does not overlap, then advance one
+				if (tokens.getEnd(ndx) <= start) {
+					ndx++;
+				}
+			}
+		}
+		return ndx;
+	}
+
+	/**
+	 * Return the index in the tokens store of the first token of the line:
+	 * the first one that ends after the start of the line.  The index of the
+	 * lines is built on first use, and then kept up to date with edits, so
+	 * finding the tokens of a line costs the same for every line.
+	 * @param line
+	 * @return
+	 */
+	int getLineTokenIndex(int line) {
+		if (tokens == null) {
+			return 0;
+		}
+		if (lines == null || lines.size() != getDefaultRootElement().getElementCount()) {
+			lines = new LineIndex(getDefaultRootElement(), tokens);
+		}
+		return lines.get(line);
+	}
+
+	/**
+	 * Get a cursor positioned just before the first token of the given
+	 * line, so next() returns it.  That token may start on a later line if
+	 * the line has no tokens, or on an earlier one if it spans lines.
+	 * @param line
+	 * @return
+	 */
+	public TokenCursor getLineTokenCursor(int line) {
+		TokenCursor cursor = getTokenCursor();
+		cursor.moveTo(getLineTokenIndex(line) - 1);
+		return cursor;
+	}
+
 	/**
 	 * Return an iterator of tokens between p0 and p1.
 	 * @param start start position for getting tokens
@@ -226,27 +757,24 @@ public class SyntaxDocument extends PlainDocument {
 	 * @return
 	 */
 	public Token getTokenAt(int pos) {
-		if (tokens == null || tokens.isEmpty() || pos > getLength()) {
+		if (tokens == null || pos > getLength()) {
 			return null;
 		}
-		Token tok = null;
-		Token tKey = new Token(TokenType.DEFAULT, pos, 1);
-		@SuppressWarnings("unchecked")
-		int ndx = Collections.binarySearch((List) tokens, tKey);
-		if (ndx < 0) {
-			// so, start from one before the token where we should be...
-			// -1 to get the location, and another -1 to go back..
-			ndx = (-ndx - 1 - 1 < 0) ? 0 : (-ndx - 1 - 1);
-			Token t = tokens.get(ndx);
-			if ((t.start <= pos) && (pos <= t.end())) {
-				tok = t;
-			}
-		} else {
-			tok = tokens.get(ndx);
-		}
-		return tok;
+		TokenCursor cursor = new TokenCursor(tokens);
+		return cursor.seek(pos) ? cursor.get() : null;
 	}
 
+	/**
+	 * Get a cursor to walk the tokens with, positioned before the first
+	 * token.  Walking with a cursor costs the same for each step however
+	 * many tokens there are.
+	 * @return
+	 */
+	public TokenCursor getTokenCursor() {
+		return new TokenCursor(tokens == null ? new TokenStore() : tokens);
+	}
+
+
 	public Token getWordAt(int offs, Pattern p) {
 		Token word = null;
 		try {
@@ -278,7 +806,8 @@ public class SyntaxDocument extends PlainDocument {
 
 	/**
 	 * Return the token following the current token, or null
-	 * <b>This is an expensive operation, so do not use it to update the gui</b>
+	 * <b>This has to find the token first, so use a {@link TokenCursor} to
+	 * walk over many tokens</b>
 	 * @param tok
 	 * @return
 	 */
@@ -293,7 +822,8 @@ public class SyntaxDocument extends PlainDocument {
 
 	/**
 	 * Return the token prior to the given token, or null
-	 * <b>This is an expensive operation, so do not use it to update the gui</b>
+	 * <b>This has to find the token first, so use a {@link TokenCursor} to
+	 * walk over many tokens</b>
 	 * @param tok
 	 * @return
 	 */
@@ -317,33 +847,91 @@ public class SyntaxDocument extends PlainDocument {
 	 * @return the other pair's token, or null if nothing is found.
 	 */
 	public Token getPairFor(Token t) {
-		if (t == null || t.pairValue == 0) {
+		if (t == null || t.pairValue == 0 || tokens == null) {
 			return null;
 		}
-		Token p = null;
 		int ndx = tokens.indexOf(t);
-		// w will be similar to a stack. The openners weght is added to it
-		// and the closers are subtracted from it (closers are already negative)
-		int w = t.pairValue;
-		int direction = (t.pairValue > 0) ? 1 : -1;
-		boolean done = false;
-		int v = Math.abs(t.pairValue);
-		while (!done) {
-			ndx += direction;
-			if (ndx < 0 || ndx >= tokens.size()) {
-				break;
-			}
-			Token current = tokens.get(ndx);
-			if (Math.abs(current.pairValue) == v) {
-				w += current.pairValue;
-				if (w == 0) {
-					p = current;
-					done = true;
+		if (ndx < 0) {
+			return null;
+		}
+		int p = tokens.getPair(ndx);
+		return (p < 0) ? null : tokens.get(p);
+	}
+
+	/**
+	 * Find all the tokens with the same text as the given token and one of
+	 * the given types, in document order.
+	 * The positions of these tokens are indexed by their text on the first
+	 * call, and the index is kept up to date as the tokens change, so later
+	 * calls with the same types only cost in proportion to the number of
+	 * tokens found.
+	 * Should be called with the read lock held.
+	 * @param token
+	 * @param types
+	 * @return the tokens, which include the given token if it is in the
+	 * document and has one of the types
+	 */
+	public List<Token> getOccurrences(Token token, Set<TokenType> types) {
+		if (tokens == null || token == null) {
+			return Collections.emptyList();
+		}
+		if (occurrences == null || !occurrences.getTypes().equals(types)
+			|| occurrences.size() > 2 * tokens.size() + 1024) {
+			// build the index again when it holds too many old positions
+			occurrences = new OccurrenceIndex(types);
+			addOccurrences(tokens, 0, tokens.size());
+		}
+		List<Token> result = new ArrayList<Token>();
+		try {
+			String text = getText(token.start, token.length);
+			IntGapBuffer starts = occurrences.get(text);
+			Segment seg = new Segment();
+			for (int i = 0; starts != null && i < starts.size();) {
+				int start = starts.get(i);
+				int ndx = -tokens.search(start, 0, TokenType.OPERATOR) - 1;
+				if (ndx < tokens.size() && tokens.getStart(ndx) == start
+					&& tokens.getLength(ndx) == text.length()
+					&& types.contains(tokens.getType(ndx))
+					&& equals(start, text, seg)) {
+					result.add(tokens.get(ndx));
+					i++;
+				} else {
+					occurrences.remove(text, i);
 				}
 			}
+		} catch (BadLocationException ex) {
+			log.log(Level.WARNING, "unable to find occurrences of: " + token, ex);
 		}
+		return result;
+	}
 
-		return p;
+	private boolean equals(int start, String text, Segment seg) throws BadLocationException {
+		getText(start, text.length(), seg);
+		for (int i = 0; i < seg.count; i++) {
+			if (seg.array[seg.offset + i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Add the tokens from (inclusive) to (exclusive) of toks with the types
+	 * of the occurrences index to it
+	 */
+	private void addOccurrences(TokenStore toks, int from, int to) {
+		Set<TokenType> types = occurrences.getTypes();
+		try {
+			for (int i = from; i < to; i++) {
+				if (types.contains(toks.getType(i))) {
+					int start = toks.getStart(i);
+					occurrences.add(getText(start, toks.getLength(i)), start);
+				}
+			}
+		} catch (BadLocationException ex) {
+			log.log(Level.WARNING, null, ex);
+			occurrences = null;
+		}
 	}
 
 	/**
@@ -352,7 +940,6 @@ public class SyntaxDocument extends PlainDocument {
 	public void doUndo() {
 		if (undo.canUndo()) {
 			undo.undo();
-			parse();
 		}
 	}
 
@@ -362,7 +949,6 @@ public class SyntaxDocument extends PlainDocument {
 	public void doRedo() {
 		if (undo.canRedo()) {
 			undo.redo();
-			parse();
 		}
 	}
 
@@ -497,18 +1083,21 @@ public class SyntaxDocument extends PlainDocument {
 	 */
 	public synchronized String getUncommentedText(int aStart, int anEnd) {
 		readLock();
-		StringBuilder result = new StringBuilder();
-		Iterator<Token> iter = getTokens(aStart, anEnd);
-		while (iter.hasNext()) {
-			Token t = iter.next();
-			if (!TokenType.isComment(t)) {
-				result.append(t.getText(this));
+		try {
+			StringBuilder result = new StringBuilder();
+			TokenCursor cursor = getLineTokenCursor(getDefaultRootElement().getElementIndex(aStart));
+			for (Token t = cursor.next(); t != null && t.start < anEnd; t = cursor.next()) {
+				if (t.end() > aStart && !TokenType.isComment(t)) {
+					result.append(t.getText(this));
+				}
 			}
+			return result.toString();
+		} finally {
+			readUnlock();
 		}
-		readUnlock();
-		return result.toString();
 	}
 
+
 	/**
 	 * Returns the starting position of the line at pos
 	 * @param pos
@@ -29,6 +29,10 @@ import javax.swing.text.Utilities;
  */
 public final class SyntaxStyle {
 
+    /**
+     * Background of the text of styles with the 0x10 flag
+     */
+    private static final Color BACKGROUND = new Color(0xEEEEEE);
     private Color color;
     private int fontStyle;
 
@@ -114,21 +118,62 @@ public final class SyntaxStyle {
     public int drawText(Segment segment, int x, int y,
             Graphics graphics, TabExpander e, int startOffset) {
         graphics.setFont(graphics.getFont().deriveFont(getFontStyle()));
-        FontMetrics fontMetrics = graphics.getFontMetrics();
+        return drawText(segment, x, y, graphics, graphics.getFontMetrics(), e, startOffset);
+    }
+
+    /**
+     * Draw text with the font of the graphics already derived for this
+     * style, so views can derive the font once, and not for every token.
+     * @param  segment - the source of the text
+     * @param  x - the X origin >= 0
+     * @param  y - the Y origin >= 0
+     * @param  graphics - the graphics context, with the font set
+     * @param fontMetrics - the metrics of the font of the graphics
+     * @param e - how to expand the tabs. If this value is null, tabs will be 
+     * expanded as a space character.
+     * @param startOffset - starting offset of the text in the document >= 0 
+     * @return
+     */
+    public int drawText(Segment segment, int x, int y, Graphics graphics,
+            FontMetrics fontMetrics, TabExpander e, int startOffset) {
+        return drawText(segment, x, y, graphics, fontMetrics, e, startOffset, 0);
+    }
+
+    /**
+     * Draw text, placing the chars by columns if the font is fixed pitch.
+     * @param fontMetrics metrics of the font of the graphics, which must not
+     * be null if pitch is not 0
+     * @param pitch the advance of the printable ASCII chars of the font, or
+     * 0 if the text must be measured
+     * @see FixedPitch
+     */
+    int drawText(Segment segment, int x, int y, Graphics graphics,
+            FontMetrics fontMetrics, TabExpander e, int startOffset, int pitch) {
+        if ((fontStyle & 0x18) == 0) {
+            // no decorations, so the size of the text is not needed
+            graphics.setColor(color);
+            return (pitch > 0)
+                    ? FixedPitch.draw(segment, x, y, graphics, fontMetrics, pitch, e, startOffset)
+                    : Utilities.drawTabbedText(segment, x, y, graphics, e, startOffset);
+        }
         int a = fontMetrics.getAscent();
         int h = a + fontMetrics.getDescent();
-        int w = Utilities.getTabbedTextWidth(segment, fontMetrics, 0, e, startOffset);
+        int w = (pitch > 0)
+                ? FixedPitch.advance(segment, x, fontMetrics, pitch, e, startOffset) - x
+                : Utilities.getTabbedTextWidth(segment, fontMetrics, x, e, startOffset);
         int rX = x - 1;
         int rY = y - a;
         int rW = w + 2;
         int rH = h;
-        if ((getFontStyle() & 0x10) != 0) {
-            graphics.setColor(Color.decode("#EEEEEE"));
+        if ((fontStyle & 0x10) != 0) {
+            graphics.setColor(BACKGROUND);
             graphics.fillRect(rX, rY, rW, rH);
         }
-        graphics.setColor(getColor());
-        x = Utilities.drawTabbedText(segment, x, y, graphics, e, startOffset);
-        if ((getFontStyle() & 0x8) != 0) {
+        graphics.setColor(color);
+        x = (pitch > 0)
+                ? FixedPitch.draw(segment, x, y, graphics, fontMetrics, pitch, e, startOffset)
+                : Utilities.drawTabbedText(segment, x, y, graphics, e, startOffset);
+        if ((fontStyle & 0x8) != 0) {
             graphics.setColor(Color.RED);
             graphics.drawRect(rX, rY, rW, rH);
         }
@@ -13,19 +13,34 @@
  */
 package jsyntaxpane;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.Toolkit;
+import java.awt.Transparency;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.JComponent;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Position;
 import javax.swing.text.PlainView;
 import javax.swing.text.Segment;
 import javax.swing.text.ViewFactory;
@@ -36,12 +51,86 @@ public class SyntaxView extends PlainView {
     public static final String PROPERTY_RIGHT_MARGIN_COLOR = "RightMarginColor";
     public static final String PROPERTY_RIGHT_MARGIN_COLUMN = "RightMarginColumn";
     public static final String PROPERTY_SINGLE_COLOR_SELECT = "SingleColorSelect";
+    public static final String PROPERTY_GLYPH_CACHE = "GlyphCache";
+    public static final String PROPERTY_TILE_CACHE = "TileCache";
+    public static final String PROPERTY_TILE_CACHE_SIZE = "TileCache.MaxSize";
+    /**
+     * The glyph cache holds this many times the lines that fit in the
+     * visible part of the container
+     */
+    private static final int GLYPH_CACHE_MARGIN = 3;
+    /**
+     * Lines of at least this many chars are drawn from the checkpoint
+     * nearest to the clip, see {@link LineCheckpoints}
+     */
+    static final int LONG_LINE = 4 * LineCheckpoints.SPACING;
     private static final Logger log = Logger.getLogger(SyntaxView.class.getName());
     private SyntaxStyle DEFAULT_STYLE = SyntaxStyles.getInstance().getStyle(TokenType.DEFAULT);
     private final boolean singleColorSelect;
     private final int rightMarginColumn;
     private final Color rightMarginColor;
     private final SyntaxStyles styles;
+    /**
+     * The line being drawn, or -1
+     */
+    private int drawingLine = -1;
+    /**
+     * The x where the line being drawn starts
+     */
+    private int drawingX;
+    /**
+     * The font of the container the fonts of the styles are derived from
+     */
+    private Font baseFont;
+    /**
+     * The derived font metrics of the style of each TokenType, and of the
+     * DEFAULT_STYLE at the end, and the font styles they were derived with
+     */
+    private final FontMetrics[] styleMetrics = new FontMetrics[TokenType.values().length + 1];
+    private final int[] fontStyles = new int[styleMetrics.length];
+    /**
+     * The advance of the printable ASCII chars of baseFont in every style,
+     * or 0 if the font is not fixed pitch.  See {@link FixedPitch}.
+     */
+    private int pitch;
+    /**
+     * The x where the lines start, which the tab stops are counted from in
+     * fixed pitch
+     */
+    private int tabOrigin;
+    private final Segment hitText = new Segment();
+    /**
+     * The end of the text measured in one font when hit testing
+     */
+    private int hitEnd;
+    /**
+     * The checkpoints of the long lines, by line number
+     */
+    private final Map<Integer, LineCheckpoints> checkpoints =
+            new HashMap<Integer, LineCheckpoints>();
+    /**
+     * Set while a long line is measured instead of drawn
+     */
+    private LineCheckpoints measuring;
+    /**
+     * Shaped lines by line number, least recently drawn first, or null if
+     * lines are not cached.  Lines with decorated text are kept incomplete,
+     * so they are not shaped again.
+     */
+    private final Map<Integer, LineGlyphs> glyphs;
+    private int glyphCapacity = 64;
+    /**
+     * Set while the text of a line is shaped instead of drawn
+     */
+    private LineGlyphs shaping;
+    /**
+     * Images of the drawn lines, or null if lines are drawn each time
+     */
+    private final LineTiles tiles;
+    /**
+     * Set while the lines of a tile are drawn into its image
+     */
+    private boolean drawingTile;
 
     /**
      * Construct a new view using the given configuration and prefix given
@@ -57,6 +146,207 @@ public class SyntaxView extends PlainView {
         rightMarginColumn = config.getInteger(PROPERTY_RIGHT_MARGIN_COLUMN,
                 0);
         styles = SyntaxStyles.read(config);
+        if (config.getBoolean(PROPERTY_GLYPH_CACHE, false)) {
+            glyphs = new LinkedHashMap<Integer, LineGlyphs>(64, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, LineGlyphs> eldest) {
+                    return size() > glyphCapacity;
+                }
+            };
+        } else {
+            glyphs = null;
+        }
+        if (config.getBoolean(PROPERTY_TILE_CACHE, false)) {
+            tiles = new LineTiles(config.getInteger(PROPERTY_TILE_CACHE_SIZE, 16) * 1024L * 1024L);
+        } else {
+            tiles = null;
+        }
+    }
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        tabOrigin = a.getBounds().x;
+        if (glyphs != null) {
+            // keep the lines of a few screens, so scrolling back and forth
+            // does not shape them again
+            Component host = getContainer();
+            int height = (host instanceof JComponent)
+                    ? ((JComponent) host).getVisibleRect().height : host.getHeight();
+            int lineHeight = Math.max(1, host.getFontMetrics(host.getFont()).getHeight());
+            glyphCapacity = Math.max(16, (height / lineHeight + 1) * GLYPH_CACHE_MARGIN);
+        }
+        super.paint(g, a);
+    }
+
+    @Override
+    protected void drawLine(int lineIndex, Graphics g, int x, int y) {
+        if (tiles != null && !drawingTile && drawTile(lineIndex, (Graphics2D) g, x, y)) {
+            return;
+        }
+        if (glyphs != null && drawGlyphs(lineIndex, (Graphics2D) g, x, y)) {
+            return;
+        }
+        drawingLine = lineIndex;
+        drawingX = x;
+        try {
+            super.drawLine(lineIndex, g, x, y);
+        } finally {
+            drawingLine = -1;
+        }
+    }
+
+    /**
+     * Copy the line from the image of its tile, drawing the tile first if
+     * it is not in the cache, or its lines that changed since it was drawn
+     * @return false if the line must be drawn instead
+     */
+    private boolean drawTile(int lineIndex, Graphics2D g, int x, int y) {
+        Component host = getContainer();
+        int width = host.getWidth();
+        // a scaled copy would blur the text
+        if (width <= 0 || (g.getTransform().getType() & AffineTransform.TYPE_MASK_SCALE) != 0) {
+            return false;
+        }
+        Element map = getElement();
+        int tile = lineIndex / LineTiles.TILE_LINES;
+        int first = tile * LineTiles.TILE_LINES;
+        int last = Math.min(first + LineTiles.TILE_LINES, map.getElementCount()) - 1;
+        if (singleColorSelect && host instanceof JTextComponent) {
+            JTextComponent text = (JTextComponent) host;
+            if (text.getSelectionStart() < map.getElement(last).getEndOffset()
+                    && text.getSelectionEnd() > map.getElement(first).getStartOffset()
+                    && text.getSelectionStart() != text.getSelectionEnd()) {
+                return false;
+            }
+        }
+        Font font = g.getFont();
+        FontMetrics fm = g.getFontMetrics();
+        int lineHeight = fm.getHeight();
+        if (!tiles.fits(width, (last - first + 1) * lineHeight)) {
+            return false;
+        }
+        BufferedImage image = tiles.get(tile, font, x, width, lineHeight);
+        int dirty;
+        if (image == null) {
+            int height = (last - first + 1) * lineHeight;
+            GraphicsConfiguration gc = host.getGraphicsConfiguration();
+            image = (gc != null)
+                    ? gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            tiles.put(tile, image, font, x, lineHeight);
+            dirty = -1;
+        } else {
+            dirty = tiles.getDirtyLines(tile);
+        }
+        if (dirty != 0) {
+            Graphics2D tg = image.createGraphics();
+            tg.setRenderingHints(g.getRenderingHints());
+            tg.setFont(font);
+            tg.setColor(g.getColor());
+            drawingTile = true;
+            try {
+                for (int line = first; line <= last; line++) {
+                    if ((dirty & (1 << (line - first))) == 0) {
+                        continue;
+                    }
+                    // each line stays in its strip, so the lines drawn again
+                    // look the same as when the whole tile is drawn
+                    int strip = (line - first) * lineHeight;
+                    tg.setClip(0, strip, width, lineHeight);
+                    tg.setComposite(AlphaComposite.Clear);
+                    tg.fillRect(0, strip, width, lineHeight);
+                    tg.setComposite(AlphaComposite.SrcOver);
+                    drawLine(line, tg, x, fm.getAscent() + strip);
+                }
+            } finally {
+                drawingTile = false;
+                tg.dispose();
+            }
+            tiles.clean(tile);
+        }
+        int top = y - fm.getAscent();
+        int row = (lineIndex - first) * lineHeight;
+        g.drawImage(image, 0, top, width, top + lineHeight, 0, row, width, row + lineHeight, null);
+        return true;
+    }
+
+    /**
+     * Draw the line from the glyph cache, shaping it first if it is not in
+     * the cache
+     * @return false if the line must be drawn by the styles instead
+     */
+    private boolean drawGlyphs(int lineIndex, Graphics2D g, int x, int y) {
+        Element line = getElement().getElement(lineIndex);
+        int p0 = line.getStartOffset();
+        int p1 = Math.min(getDocument().getLength(), line.getEndOffset());
+        if (p1 - p0 >= LONG_LINE) {
+            // only the part within the clip is drawn
+            return false;
+        }
+        Component host = getContainer();
+        if (singleColorSelect && host instanceof JTextComponent) {
+            JTextComponent text = (JTextComponent) host;
+            if (text.getSelectionStart() < p1 && text.getSelectionEnd() > p0) {
+                return false;
+            }
+        }
+        setRenderingHits(g);
+        updateBaseFont(g);
+        FontRenderContext frc = g.getFontRenderContext();
+        LineGlyphs lg = glyphs.get(lineIndex);
+        if (lg == null || !lg.isValid(frc, x)) {
+            lg = new LineGlyphs(frc, x);
+            shaping = lg;
+            drawingLine = lineIndex;
+            try {
+                drawUnselectedText(g, x, y, p0, p1);
+            } finally {
+                shaping = null;
+                drawingLine = -1;
+            }
+            glyphs.put(lineIndex, lg);
+        }
+        if (!lg.isComplete()) {
+            return false;
+        }
+        Color saveColor = g.getColor();
+        drawRightMargin(g, y);
+        lg.draw(g, y);
+        g.setColor(saveColor);
+        return true;
+    }
+
+    /**
+     * Forget the fonts derived from the old font of the container, when the
+     * font of the graphics is not the same
+     * @param g
+     */
+    private void updateBaseFont(Graphics g) {
+        Font font = g.getFont();
+        if (font != baseFont && !font.equals(baseFont)) {
+            baseFont = font;
+            pitch = FixedPitch.pitchOf(g, font);
+            Arrays.fill(styleMetrics, null);
+            checkpoints.clear();
+            if (glyphs != null) {
+                glyphs.clear();
+            }
+        }
+    }
+
+    /**
+     * Draw the right margin, if needed
+     * @param graphics
+     * @param y
+     */
+    private void drawRightMargin(Graphics graphics, int y) {
+        if (rightMarginColumn > 0) {
+            int m_x = rightMarginColumn * graphics.getFontMetrics().charWidth('m');
+            int h = graphics.getFontMetrics().getHeight();
+            graphics.setColor(rightMarginColor);
+            graphics.drawLine(m_x, y, m_x, y - h);
+        }
     }
 
     @Override
@@ -65,33 +355,63 @@ public class SyntaxView extends PlainView {
         setRenderingHits((Graphics2D) graphics);
         Font saveFont = graphics.getFont();
         Color saveColor = graphics.getColor();
+        updateBaseFont(graphics);
         SyntaxDocument doc = (SyntaxDocument) getDocument();
         Segment segment = getLineBuffer();
         // Draw the right margin first, if needed.  This way the text overalys
         // the margin
-        if (rightMarginColumn > 0) {
-            int m_x = rightMarginColumn * graphics.getFontMetrics().charWidth('m');
-            int h = graphics.getFontMetrics().getHeight();
-            graphics.setColor(rightMarginColor);
-            graphics.drawLine(m_x, y, m_x, y - h);
+        if (shaping == null && measuring == null) {
+            drawRightMargin(graphics, y);
         }
         try {
-            // Colour the parts
-            Iterator<Token> i = doc.getTokens(p0, p1);
+            boolean skipped = false;
+            Rectangle clip = graphics.getClipBounds();
+            if (drawingLine >= 0 && shaping == null && measuring == null && clip != null) {
+                // draw only the checkpoints of a long line around the clip
+                LineCheckpoints cp = getCheckpoints(graphics);
+                if (cp != null) {
+                    // start at the clip, but not after p1, so the x after
+                    // the text is still right
+                    int i = Math.min(cp.indexOfX(clip.x), cp.indexOfOffset(p1));
+                    if (cp.getOffset(i) > p0) {
+                        p0 = cp.getOffset(i);
+                        x = cp.getX(i);
+                        skipped = true;
+                    }
+                    i = cp.indexOfX(clip.x + clip.width) + 1;
+                    if (i < cp.size() && cp.getOffset(i) < p1) {
+                        p1 = cp.getOffset(i);
+                    }
+                }
+            }
+            // Colour the parts, reading the tokens straight from the store
+            TokenStore tokens = doc.tokens;
+            int count = (tokens == null) ? 0 : tokens.size();
             int start = p0;
-            while (i.hasNext()) {
-                Token t = i.next();
+            int ndx;
+            if (drawingLine >= 0 && !skipped) {
+                // start from the first token of the line, which is at p0
+                // unless only part of the line is drawn here
+                ndx = doc.getLineTokenIndex(drawingLine);
+                while (ndx < count && tokens.getEnd(ndx) <= p0) {
+                    ndx++;
+                }
+            } else {
+                ndx = doc.getFirstTokenIndex(p0, p1);
+            }
+            for (; ndx < count && tokens.getStart(ndx) < p1; ndx++) {
+                int tStart = tokens.getStart(ndx);
                 // if there is a gap between the next token start and where we
                 // should be starting (spaces not returned in tokens), then draw
                 // it in the default type
-                if (start < t.start) {
-                    doc.getText(start, t.start - start, segment);
-                    x = DEFAULT_STYLE.drawText(segment, x, y, graphics, this, start);
+                if (start < tStart) {
+                    doc.getText(start, tStart - start, segment);
+                    x = drawText(DEFAULT_STYLE, styleMetrics.length - 1, segment, x, y, graphics, start);
                 }
                 // t and s are the actual start and length of what we should
                 // put on the screen.  assume these are the whole token....
-                int l = t.length;
-                int s = t.start;
+                int l = tokens.getLength(ndx);
+                int s = tStart;
                 // ... unless the token starts before p0:
                 if (s < p0) {
                     // token is before what is requested. adgust the length and s
@@ -104,13 +424,18 @@ public class SyntaxView extends PlainView {
                     l = p1 - s;
                 }
                 doc.getText(s, l, segment);
-                x = styles.drawText(segment, x, y, graphics, this, t);
-                start = t.end();
+                TokenType type = tokens.getType(ndx);
+                x = drawText(styles.getStyle(type), type.ordinal(), segment, x, y, graphics, s);
+                start = tokens.getEnd(ndx);
+                if (shaping != null && !shaping.isComplete()) {
+                    // the line is drawn by the styles instead
+                    return x;
+                }
             }
             // now for any remaining text not tokenized:
             if (start < p1) {
                 doc.getText(start, p1 - start, segment);
-                x = DEFAULT_STYLE.drawText(segment, x, y, graphics, this, start);
+                x = drawText(DEFAULT_STYLE, styleMetrics.length - 1, segment, x, y, graphics, start);
             }
         } catch (BadLocationException ex) {
             log.log(Level.SEVERE, "Requested: " + ex.offsetRequested(), ex);
@@ -121,16 +446,248 @@ public class SyntaxView extends PlainView {
         return x;
     }
 
+    /**
+     * Draw text with the style, using the font derived for it the last time
+     * unless the style changed
+     * @param style
+     * @param slot index of the style in styleMetrics
+     */
+    private int drawText(SyntaxStyle style, int slot, Segment segment, int x, int y,
+            Graphics graphics, int startOffset) {
+        FontMetrics fm = metricsOf(style, slot, graphics);
+        if (shaping != null) {
+            return shaping.add(segment, x, style, fm, this, startOffset);
+        }
+        if (measuring != null) {
+            return measuring.measure(segment, x, fm, pitch, this, startOffset);
+        }
+        graphics.setFont(fm.getFont());
+        return style.drawText(segment, x, y, graphics, fm, this, startOffset, pitch);
+    }
+
+    /**
+     * Get the metrics of the font derived for the style
+     * @param style
+     * @param slot index of the style in styleMetrics
+     * @param graphics to derive the font with, or null to use the metrics of
+     * the container without keeping them
+     */
+    private FontMetrics metricsOf(SyntaxStyle style, int slot, Graphics graphics) {
+        FontMetrics fm = styleMetrics[slot];
+        if (fm == null || fontStyles[slot] != style.getFontStyle()) {
+            Font font = baseFont.deriveFont(style.getFontStyle());
+            if (graphics == null) {
+                return getContainer().getFontMetrics(font);
+            }
+            fm = graphics.getFontMetrics(font);
+            styleMetrics[slot] = fm;
+            fontStyles[slot] = style.getFontStyle();
+        }
+        return fm;
+    }
+
+    /**
+     * Get the checkpoints of the line being drawn, measuring the line if
+     * they are not known
+     * @param g
+     * @return the checkpoints, or null if the line is not long
+     */
+    private LineCheckpoints getCheckpoints(Graphics g) {
+        Element line = getElement().getElement(drawingLine);
+        int p0 = line.getStartOffset();
+        int p1 = Math.min(getDocument().getLength(), line.getEndOffset());
+        if (p1 - p0 < LONG_LINE) {
+            return null;
+        }
+        LineCheckpoints cp = checkpoints.get(drawingLine);
+        if (cp == null || !cp.isValid(drawingX)) {
+            cp = new LineCheckpoints(p0, drawingX);
+            measuring = cp;
+            try {
+                drawUnselectedText(g, drawingX, 0, p0, p1);
+            } finally {
+                measuring = null;
+            }
+            checkpoints.put(drawingLine, cp);
+        }
+        return cp;
+    }
+
+    /**
+     * @return true if the font of the container is fixed pitch, so the
+     * positions of the chars can be counted
+     */
+    private boolean isFixedPitch() {
+        return pitch > 0 && super.metrics != null && super.metrics.getHeight() > 0
+                && super.metrics.charWidth('m') == pitch
+                && super.metrics.getFont().equals(baseFont);
+    }
+
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        if (!isFixedPitch()) {
+            return super.nextTabStop(x, tabOffset);
+        }
+        int tabSize = getTabSize() * pitch;
+        if (tabSize == 0) {
+            return x;
+        }
+        int ntabs = ((int) x - tabOrigin) / tabSize;
+        return tabOrigin + ((ntabs + 1) * tabSize);
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b)
+            throws BadLocationException {
+        if (!isFixedPitch()) {
+            return super.modelToView(pos, a, b);
+        }
+        Element map = getElement();
+        int lineIndex = map.getElementIndex(pos);
+        if (lineIndex < 0) {
+            return lineToRect(a, 0);
+        }
+        Rectangle lineArea = lineToRect(a, lineIndex);
+        tabOrigin = lineArea.x;
+        int p0 = map.getElement(lineIndex).getStartOffset();
+        int x = lineArea.x;
+        // in fixed pitch the checkpoints of a long line are the columns too
+        LineCheckpoints cp = checkpoints.get(lineIndex);
+        if (cp != null && cp.isValid(x)) {
+            int i = cp.indexOfOffset(pos);
+            p0 = cp.getOffset(i);
+            x = cp.getX(i);
+        }
+        lineArea.x = advance(p0, x, pos);
+        lineArea.width = 1;
+        lineArea.height = super.metrics.getHeight();
+        return lineArea;
+    }
+
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        if (!isFixedPitch()) {
+            return super.viewToModel(fx, fy, a, bias);
+        }
+        bias[0] = Position.Bias.Forward;
+        Rectangle alloc = a.getBounds();
+        int x = (int) fx;
+        int y = (int) fy;
+        if (y < alloc.y) {
+            return getStartOffset();
+        } else if (y > alloc.y + alloc.height) {
+            return getEndOffset() - 1;
+        }
+        Element map = getElement();
+        int lineIndex = Math.abs((y - alloc.y) / super.metrics.getHeight());
+        if (lineIndex >= map.getElementCount()) {
+            return getEndOffset() - 1;
+        }
+        Element line = map.getElement(lineIndex);
+        if (x < alloc.x) {
+            return line.getStartOffset();
+        } else if (x > alloc.x + alloc.width) {
+            return line.getEndOffset() - 1;
+        }
+        int p0 = line.getStartOffset();
+        int p1 = line.getEndOffset() - 1;
+        int x0 = alloc.x;
+        LineCheckpoints cp = checkpoints.get(lineIndex);
+        if (cp != null && cp.isValid(x0)) {
+            int i = cp.indexOfX(x);
+            p0 = cp.getOffset(i);
+            x0 = cp.getX(i);
+            if (p0 >= p1) {
+                return p1;
+            }
+            if (i + 1 < cp.size()) {
+                p1 = Math.min(p1, cp.getOffset(i + 1));
+            }
+        }
+        tabOrigin = alloc.x;
+        try {
+            return offset(p0, x0, p1, x);
+        } catch (BadLocationException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the x after the text of a line from p0 to p1, counting the columns
+     * of the text, and measuring the chars that are not in columns with the
+     * font of their token
+     * @param p0
+     * @param x where the text starts
+     * @param p1
+     * @return
+     */
+    private int advance(int p0, int x, int p1) throws BadLocationException {
+        SyntaxDocument doc = (SyntaxDocument) getDocument();
+        doc.getText(p0, p1 - p0, hitText);
+        if (FixedPitch.isColumns(hitText)) {
+            return FixedPitch.advance(hitText, x, null, pitch, this, p0);
+        }
+        for (int start = p0; start < p1; start = hitEnd) {
+            FontMetrics fm = hitMetrics(doc, start, p1);
+            doc.getText(start, hitEnd - start, hitText);
+            x = FixedPitch.advance(hitText, x, fm, pitch, this, start);
+        }
+        return x;
+    }
+
+    /**
+     * Get the offset in the text of a line from p0 to p1 that is closest to
+     * x, the same way as {@link #advance(int, int, int)} measures it
+     * @param p0
+     * @param x0 where the text starts
+     * @param p1
+     * @param x
+     * @return
+     */
+    private int offset(int p0, int x0, int p1, int x) throws BadLocationException {
+        SyntaxDocument doc = (SyntaxDocument) getDocument();
+        doc.getText(p0, p1 - p0, hitText);
+        if (FixedPitch.isColumns(hitText)) {
+            return p0 + FixedPitch.offset(hitText, x0, x, null, pitch, this, p0);
+        }
+        for (int start = p0; start < p1; start = hitEnd) {
+            FontMetrics fm = hitMetrics(doc, start, p1);
+            doc.getText(start, hitEnd - start, hitText);
+            int end = FixedPitch.advance(hitText, x0, fm, pitch, this, start);
+            if (x < end) {
+                return start + FixedPitch.offset(hitText, x0, x, fm, pitch, this, start);
+            }
+            x0 = end;
+        }
+        return p1;
+    }
+
+    /**
+     * Get the metrics of the font the text at pos is drawn with, and set
+     * hitEnd to where the text in that font ends, at most at p1
+     */
+    private FontMetrics hitMetrics(SyntaxDocument doc, int pos, int p1) {
+        TokenStore tokens = doc.tokens;
+        int ndx = doc.getFirstTokenIndex(pos, p1);
+        hitEnd = p1;
+        if (tokens != null && ndx < tokens.size() && tokens.getStart(ndx) < p1) {
+            if (tokens.getStart(ndx) > pos) {
+                // the text between tokens is drawn in the default style
+                hitEnd = tokens.getStart(ndx);
+            } else {
+                hitEnd = Math.min(tokens.getEnd(ndx), p1);
+                TokenType type = tokens.getType(ndx);
+                return metricsOf(styles.getStyle(type), type.ordinal(), null);
+            }
+        }
+        return metricsOf(DEFAULT_STYLE, styleMetrics.length - 1, null);
+    }
+
     @Override
     protected int drawSelectedText(Graphics graphics, int x, int y, int p0, int p1)
             throws BadLocationException {
         if (singleColorSelect) {
-            if (rightMarginColumn > 0) {
-                int m_x = rightMarginColumn * graphics.getFontMetrics().charWidth('m');
-                int h = graphics.getFontMetrics().getHeight();
-                graphics.setColor(rightMarginColor);
-                graphics.drawLine(m_x, y, m_x, y - h);
-            }
+            drawRightMargin(graphics, y);
             return super.drawSelectedText(graphics, x, y, p0, p1);
         } else {
             return drawUnselectedText(graphics, x, y, p0, p1);
@@ -146,13 +703,58 @@ public class SyntaxView extends PlainView {
         g2d.addRenderingHints(sysHints);
     }
 
+    /**
+     * Besides the changed lines PlainView repaints, repaint the lines whose
+     * tokens were relexed, as their colors may have changed, for example
+     * after the start of a block comment was typed.
+     */
     @Override
     protected void updateDamage(javax.swing.event.DocumentEvent changes,
             Shape a,
             ViewFactory f) {
         super.updateDamage(changes, a, f);
-        java.awt.Component host = getContainer();
-        host.repaint();
+        SyntaxDocument doc = (SyntaxDocument) getDocument();
+        TokenChangeEvent tokens = doc.getTokenChange();
+        Element map = getElement();
+        int first = map.getElementIndex(changes.getOffset());
+        int last = first;
+        if (tokens != null) {
+            int end = Math.min(tokens.getEnd(), doc.getLength());
+            damageLineRange(map.getElementIndex(tokens.getStart()),
+                    map.getElementIndex(end), a, getContainer());
+            first = Math.min(first, map.getElementIndex(tokens.getStart()));
+            last = Math.max(last, map.getElementIndex(end));
+        }
+        if (changes.getChange(map) != null) {
+            checkpoints.clear();
+        } else {
+            for (Iterator<Integer> it = checkpoints.keySet().iterator(); it.hasNext();) {
+                int line = it.next();
+                if (first <= line && line <= last) {
+                    it.remove();
+                }
+            }
+        }
+        if (glyphs != null) {
+            if (changes.getChange(map) != null) {
+                // lines were added or removed, so the lines after them moved
+                glyphs.clear();
+            } else {
+                for (Iterator<Integer> it = glyphs.keySet().iterator(); it.hasNext();) {
+                    int line = it.next();
+                    if (first <= line && line <= last) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+        if (tiles != null) {
+            if (changes.getChange(map) != null) {
+                tiles.invalidateFrom(first);
+            } else {
+                tiles.invalidate(first, last);
+            }
+        }
     }
     /**
      * The values for the string key for Text Anti-Aliasing
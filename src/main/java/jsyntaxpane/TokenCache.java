@@ -0,0 +1,464 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import javax.swing.text.Segment;
+
+/**
+ * A cache of the tokens of large texts in files in a directory, so reopening
+ * the same file does not lex it again.
+ *
+ * Entries are keyed by a hash of the text, the lexer class and a checksum of
+ * the lexer's class file, so a changed lexer does not use stale tokens.
+ * Tokens and lexer checkpoints are stored as varints, with positions
+ * relative to the previous one, and read back through a memory mapped
+ * buffer.  Checkpoint states are stored as the ints written by
+ * {@link StatefulLexer#encodeState(Object)}, never as serialized objects,
+ * so a file planted in the directory can at worst give wrong tokens.
+ * Tokens and checkpoints read back must be in order and within the text;
+ * a file that is not is deleted and the text is lexed again.
+ *
+ * The total size of the files is kept under a limit by deleting the least
+ * recently used ones.
+ *
+ * This class is thread safe, and several caches may share a directory.
+ */
+public class TokenCache {
+
+	/**
+	 * Texts shorter than this are not cached by default
+	 */
+	public static final int DEFAULT_MIN_LENGTH = 256 * 1024;
+	private static final Logger log = Logger.getLogger(TokenCache.class.getName());
+	private static final int MAGIC = 0x4a535054;
+	private static final int FORMAT = 2;
+	private static final String SUFFIX = ".tokens";
+	private static final TokenType[] TYPES = TokenType.values();
+	private static final Map<Class<?>, Long> LEXER_VERSIONS = new HashMap<Class<?>, Long>();
+	private static final Map<File, TokenCache> CACHES = new HashMap<File, TokenCache>();
+	private final File dir;
+	private final long maxSize;
+	private volatile int minLength = DEFAULT_MIN_LENGTH;
+
+	/**
+	 * Create a cache in the given directory, which is created if needed
+	 * @param dir
+	 * @param maxSize maximum total size of the cache files in bytes
+	 */
+	public TokenCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Get the shared cache for the given directory
+	 * @param dir
+	 * @param maxSize maximum total size of the cache files in bytes, used
+	 * when the cache is first created
+	 * @return
+	 */
+	public static TokenCache forDirectory(File dir, long maxSize) {
+		synchronized (CACHES) {
+			File key = dir.getAbsoluteFile();
+			TokenCache cache = CACHES.get(key);
+			if (cache == null) {
+				cache = new TokenCache(key, maxSize);
+				CACHES.put(key, cache);
+			}
+			return cache;
+		}
+	}
+
+	public int getMinLength() {
+		return minLength;
+	}
+
+	/**
+	 * Set the length below which texts are not cached.  Lexing short texts
+	 * is quicker than reading their tokens.
+	 * @param minLength
+	 */
+	public void setMinLength(int minLength) {
+		this.minLength = minLength;
+	}
+
+	/**
+	 * Read the tokens of the text, if they are in the cache
+	 * @param file the file from {@link #getFile(Class, Segment)}
+	 * @param text
+	 * @param lexer the lexer to decode the checkpoint states with, or null
+	 * if the lexer is not a StatefulLexer
+	 * @param toks empty store to add the tokens to
+	 * @param cps empty checkpoints to add to
+	 * @return true if the tokens were found
+	 */
+	boolean load(File file, Segment text, StatefulLexer lexer, TokenStore toks, LexerCheckpoints cps) {
+		if (!file.isFile()) {
+			return false;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (buf.getInt() != MAGIC || buf.getInt() != FORMAT || readVarint(buf) != text.count) {
+					throw new IOException("Not a token cache file");
+				}
+				readTokens(buf, toks, text.count);
+				readCheckpoints(buf, lexer, cps, text.count, toks.size());
+			} finally {
+				raf.close();
+			}
+			// most recently used
+			file.setLastModified(System.currentTimeMillis());
+			return true;
+		} catch (Exception ex) {
+			log.log(Level.WARNING, "Ignoring bad token cache file " + file, ex);
+			file.delete();
+			toks.remove(0, toks.size());
+			cps.clear();
+			return false;
+		}
+	}
+
+	/**
+	 * Add the tokens of the text to the cache, and remove the least recently
+	 * used entries if the cache is too large.
+	 * @param file the file from {@link #getFile(Class, Segment)}
+	 * @param text
+	 * @param lexer the lexer to encode the checkpoint states with, or null
+	 * if the lexer is not a StatefulLexer
+	 * @param toks
+	 * @param cps
+	 */
+	void store(File file, Segment text, StatefulLexer lexer, TokenStore toks, LexerCheckpoints cps) {
+		File tmp = null;
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Cannot create " + dir);
+			}
+			tmp = File.createTempFile("store", ".tmp", dir);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+			try {
+				writeInt(out, MAGIC);
+				writeInt(out, FORMAT);
+				writeVarint(out, text.count);
+				writeTokens(out, toks);
+				writeCheckpoints(out, lexer, cps);
+			} finally {
+				out.close();
+			}
+			// another thread may have stored the same text meanwhile
+			if (!tmp.renameTo(file) && !file.isFile()) {
+				throw new IOException("Cannot rename " + tmp + " to " + file);
+			}
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Cannot store tokens in " + dir, ex);
+		} finally {
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Delete the least recently used files until the cache fits in maxSize
+	 */
+	private void evict() {
+		File[] files = dir.listFiles(new FileFilter() {
+
+			@Override
+			public boolean accept(File f) {
+				return f.getName().endsWith(SUFFIX);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+		long total = 0;
+		for (int i = 0; i < files.length; i++) {
+			total += files[i].length();
+		}
+		if (total <= maxSize) {
+			return;
+		}
+		// take the times once, as sorting must not see them change
+		final Map<File, Long> times = new HashMap<File, Long>();
+		for (int i = 0; i < files.length; i++) {
+			times.put(files[i], files[i].lastModified());
+		}
+		Arrays.sort(files, new Comparator<File>() {
+
+			@Override
+			public int compare(File f1, File f2) {
+				return times.get(f1).compareTo(times.get(f2));
+			}
+		});
+		for (int i = 0; i < files.length && total > maxSize; i++) {
+			long length = files[i].length();
+			if (files[i].delete()) {
+				total -= length;
+			}
+		}
+	}
+
+	/**
+	 * Get the file the tokens of the text are cached in
+	 * @param lexerClass
+	 * @param text
+	 * @return
+	 */
+	File getFile(Class<?> lexerClass, Segment text) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update(lexerClass.getName().getBytes("UTF-8"));
+			long version = getLexerVersion(lexerClass);
+			for (int i = 0; i < 8; i++) {
+				md.update((byte) (version >>> (i * 8)));
+			}
+			byte[] bytes = new byte[8192];
+			int n = 0;
+			for (int i = 0; i < text.count; i++) {
+				char c = text.array[text.offset + i];
+				bytes[n++] = (byte) c;
+				bytes[n++] = (byte) (c >>> 8);
+				if (n == bytes.length) {
+					md.update(bytes, 0, n);
+					n = 0;
+				}
+			}
+			md.update(bytes, 0, n);
+			StringBuilder name = new StringBuilder();
+			for (byte b : md.digest()) {
+				name.append(String.format("%02x", b & 0xff));
+			}
+			return new File(dir, name.append(SUFFIX).toString());
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * The checksum of the class file of the lexer, so the cache is not used
+	 * by a different version of the lexer
+	 */
+	private static long getLexerVersion(Class<?> lexerClass) {
+		synchronized (LEXER_VERSIONS) {
+			Long version = LEXER_VERSIONS.get(lexerClass);
+			if (version == null) {
+				CRC32 crc = new CRC32();
+				String name = lexerClass.getName();
+				InputStream is = lexerClass.getResourceAsStream(
+					name.substring(name.lastIndexOf('.') + 1) + ".class");
+				if (is != null) {
+					try {
+						byte[] buf = new byte[4096];
+						for (int n = is.read(buf); n >= 0; n = is.read(buf)) {
+							crc.update(buf, 0, n);
+						}
+						is.close();
+					} catch (IOException ex) {
+						log.log(Level.WARNING, null, ex);
+					}
+				}
+				version = crc.getValue();
+				LEXER_VERSIONS.put(lexerClass, version);
+			}
+			return version;
+		}
+	}
+
+	private void writeTokens(OutputStream out, TokenStore toks) throws IOException {
+		writeVarint(out, toks.size());
+		int end = 0;
+		for (int i = 0; i < toks.size(); i++) {
+			int start = toks.getStart(i);
+			writeVarint(out, zigzag(start - end));
+			writeVarint(out, toks.getLength(i));
+			writeVarint(out, toks.getType(i).ordinal());
+			writeVarint(out, zigzag(toks.getPairValue(i)));
+			end = start + toks.getLength(i);
+		}
+	}
+
+	private void readTokens(ByteBuffer buf, TokenStore toks, int textLength) throws IOException {
+		int count = readVarint(buf);
+		if (count < 0 || count > buf.remaining()) {
+			throw new IOException("Bad token count in token cache file");
+		}
+		int end = 0;
+		for (int i = 0; i < count; i++) {
+			int gap = unzigzag(readVarint(buf));
+			int length = readVarint(buf);
+			int type = readVarint(buf);
+			int pairValue = unzigzag(readVarint(buf));
+			// tokens are in order, and within the text
+			if (gap < 0 || length < 0 || gap > textLength - end || length > textLength - end - gap
+				|| type < 0 || type >= TYPES.length
+				|| pairValue < Byte.MIN_VALUE || pairValue > Byte.MAX_VALUE) {
+				throw new IOException("Bad token in token cache file");
+			}
+			int start = end + gap;
+			toks.add(TYPES[type], start, length, (byte) pairValue);
+			end = start + length;
+		}
+	}
+
+	private void writeCheckpoints(OutputStream out, StatefulLexer lexer, LexerCheckpoints cps)
+		throws IOException {
+		// the distinct states are stored once, and referred to by index
+		List<int[]> states = new ArrayList<int[]>();
+		Map<Object, Integer> indexes = new HashMap<Object, Integer>();
+		int[] stateIndexes = new int[cps.size()];
+		for (int i = 0; i < cps.size(); i++) {
+			Object state = cps.getState(i);
+			Integer ndx = indexes.get(state);
+			if (ndx == null) {
+				int[] values = (lexer == null) ? null : lexer.encodeState(state);
+				if (values == null) {
+					// without states the checkpoints are of no use
+					writeVarint(out, 0);
+					return;
+				}
+				ndx = states.size();
+				indexes.put(state, ndx);
+				states.add(values);
+			}
+			stateIndexes[i] = ndx;
+		}
+		writeVarint(out, states.size());
+		for (int[] values : states) {
+			writeVarint(out, values.length);
+			for (int i = 0; i < values.length; i++) {
+				writeVarint(out, zigzag(values[i]));
+			}
+		}
+		writeVarint(out, cps.size());
+		int pos = 0;
+		int count = 0;
+		for (int i = 0; i < cps.size(); i++) {
+			writeVarint(out, cps.getPosition(i) - pos);
+			writeVarint(out, zigzag(cps.getExtent(i) - cps.getPosition(i)));
+			writeVarint(out, cps.getTokenCount(i) - count);
+			writeVarint(out, stateIndexes[i]);
+			pos = cps.getPosition(i);
+			count = cps.getTokenCount(i);
+		}
+	}
+
+	private void readCheckpoints(ByteBuffer buf, StatefulLexer lexer, LexerCheckpoints cps,
+		int textLength, int tokenCount) throws IOException {
+		int stateCount = readVarint(buf);
+		if (stateCount == 0) {
+			return;
+		}
+		if (lexer == null || stateCount < 0 || stateCount > buf.remaining()) {
+			throw new IOException("Bad lexer states in token cache file");
+		}
+		Object[] states = new Object[stateCount];
+		for (int i = 0; i < stateCount; i++) {
+			int length = readVarint(buf);
+			if (length < 0 || length > buf.remaining()) {
+				throw new IOException("Bad lexer states in token cache file");
+			}
+			int[] values = new int[length];
+			for (int j = 0; j < length; j++) {
+				values[j] = unzigzag(readVarint(buf));
+			}
+			states[i] = lexer.decodeState(values);
+		}
+		int count = readVarint(buf);
+		if (count < 0 || count > buf.remaining()) {
+			throw new IOException("Bad checkpoint count in token cache file");
+		}
+		int pos = 0;
+		int tokens = 0;
+		for (int i = 0; i < count; i++) {
+			int gap = readVarint(buf);
+			int extent = unzigzag(readVarint(buf));
+			int added = readVarint(buf);
+			int ndx = readVarint(buf);
+			// checkpoints are in order, within the text and the tokens
+			if (gap < 0 || gap > textLength - pos || added < 0 || added > tokenCount - tokens
+				|| ndx < 0 || ndx >= stateCount) {
+				throw new IOException("Bad checkpoint in token cache file");
+			}
+			pos += gap;
+			extent += pos;
+			if (extent < 0 || extent > textLength) {
+				throw new IOException("Bad checkpoint in token cache file");
+			}
+			tokens += added;
+			cps.add(pos, extent, tokens, states[ndx]);
+		}
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static void writeVarint(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(ByteBuffer buf) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = buf.get();
+			value |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
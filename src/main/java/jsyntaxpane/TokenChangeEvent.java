@@ -0,0 +1,89 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+import java.util.EventObject;
+
+/**
+ * Tells which tokens of a SyntaxDocument were replaced: the removed count
+ * tokens from index on were replaced by the added count tokens from index
+ * on.  The new tokens lie between the start and end positions.
+ *
+ * The tokens before index did not change.  The tokens after the new ones
+ * are the old tokens after the removed ones, moved by the change in the
+ * length of the text.
+ */
+public class TokenChangeEvent extends EventObject {
+
+	private static final long serialVersionUID = 1L;
+	private final int index;
+	private final int removed;
+	private final int added;
+	private final int start;
+	private final int end;
+
+	public TokenChangeEvent(SyntaxDocument source, int index, int removed, int added,
+		int start, int end) {
+		super(source);
+		this.index = index;
+		this.removed = removed;
+		this.added = added;
+		this.start = start;
+		this.end = end;
+	}
+
+	public SyntaxDocument getDocument() {
+		return (SyntaxDocument) getSource();
+	}
+
+	/**
+	 * @return index of the first replaced token
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return number of old tokens that were removed
+	 */
+	public int getRemovedCount() {
+		return removed;
+	}
+
+	/**
+	 * @return number of new tokens
+	 */
+	public int getAddedCount() {
+		return added;
+	}
+
+	/**
+	 * @return start of the changed part of the document
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return end of the changed part of the document
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TokenChangeEvent[%d, -%d, +%d, (%d, %d)]", index, removed, added, start, end);
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane;
+
+/**
+ * Walks the tokens of a SyntaxDocument.  The cursor keeps the index of its
+ * current token, so moving to the next or previous token costs the same
+ * however many tokens there are, unlike
+ * {@link SyntaxDocument#getNextToken(jsyntaxpane.Token)}, which has to find
+ * the token first.
+ *
+ * A cursor is obtained from {@link SyntaxDocument#getTokenCursor()}, and is
+ * positioned before the first token.  It is only valid until the document
+ * changes, so it should be used with the read lock held, or on the event
+ * dispatch thread.
+ *
+ * <pre>
+ * TokenCursor cursor = doc.getTokenCursor();
+ * if (cursor.seek(dot)) {
+ *     Token tag = cursor.prev(TokenType.TYPE);
+ * }
+ * </pre>
+ */
+public final class TokenCursor {
+
+	private final TokenStore tokens;
+	private int ndx = -1;
+
+	TokenCursor(TokenStore tokens) {
+		this.tokens = tokens;
+	}
+
+	/**
+	 * Move to the token at the given position, the one
+	 * {@link SyntaxDocument#getTokenAt(int)} returns.  If there is none, move
+	 * to the last token starting before the position, or before the first
+	 * token.
+	 * @param pos
+	 * @return true if there is a token at pos
+	 */
+	public boolean seek(int pos) {
+		if (tokens.isEmpty()) {
+			ndx = -1;
+			return false;
+		}
+		ndx = tokens.search(pos, 1, TokenType.DEFAULT);
+		if (ndx >= 0) {
+			return true;
+		}
+		// start from one before the token where we should be
+		ndx = Math.max(-ndx - 2, 0);
+		if (tokens.getStart(ndx) <= pos && pos <= tokens.getEnd(ndx)) {
+			return true;
+		}
+		if (tokens.getStart(ndx) > pos) {
+			ndx--;
+		}
+		return false;
+	}
+
+	/**
+	 * Move to the token at the given index
+	 * @param ndx
+	 */
+	void moveTo(int ndx) {
+		this.ndx = ndx;
+	}
+
+	/**
+	 * @return the current token, or null if the cursor is before the first
+	 * or after the last token
+	 */
+	public Token get() {
+		return isValid() ? tokens.get(ndx) : null;
+	}
+
+	/**
+	 * @return true if the cursor is on a token
+	 */
+	public boolean isValid() {
+		return ndx >= 0 && ndx < tokens.size();
+	}
+
+	/**
+	 * Move to the next token
+	 * @return the next token, or null if there is none
+	 */
+	public Token next() {
+		if (ndx < tokens.size()) {
+			ndx++;
+		}
+		return get();
+	}
+
+	/**
+	 * Move to the previous token
+	 * @return the previous token, or null if there is none
+	 */
+	public Token prev() {
+		if (ndx >= 0) {
+			ndx--;
+		}
+		return get();
+	}
+
+	/**
+	 * Move to the next token of the given type
+	 * @param type
+	 * @return the token, or null if there is none
+	 */
+	public Token next(TokenType type) {
+		while (++ndx < tokens.size()) {
+			if (tokens.getType(ndx) == type) {
+				return tokens.get(ndx);
+			}
+		}
+		ndx = tokens.size();
+		return null;
+	}
+
+	/**
+	 * Move to the previous token of the given type
+	 * @param type
+	 * @return the token, or null if there is none
+	 */
+	public Token prev(TokenType type) {
+		if (ndx > tokens.size()) {
+			ndx = tokens.size();
+		}
+		while (--ndx >= 0) {
+			if (tokens.getType(ndx) == type) {
+				return tokens.get(ndx);
+			}
+		}
+		ndx = -1;
+		return null;
+	}
+
+	/**
+	 * Move to the other token of the pair of the current token.  See
+	 * {@link SyntaxDocument#getPairFor(jsyntaxpane.Token)}.
+	 * @return the other token, or null, without moving, if the current
+	 * token has no partner
+	 */
+	public Token pair() {
+		if (!isValid()) {
+			return null;
+		}
+		int p = tokens.getPair(ndx);
+		if (p < 0) {
+			return null;
+		}
+		ndx = p;
+		return tokens.get(ndx);
+	}
+
+	/**
+	 * @return index of the current token, -1 if before the first token, and
+	 * the number of tokens if after the last one
+	 */
+	public int getIndex() {
+		return ndx;
+	}
+
+	/**
+	 * Get the type of the current token, without creating a Token.  Like
+	 * the other getters, only call this if {@link #isValid()}.
+	 * @return
+	 */
+	public TokenType getType() {
+		return tokens.getType(ndx);
+	}
+
+	/**
+	 * @return start of the current token
+	 */
+	public int getStart() {
+		return tokens.getStart(ndx);
+	}
+
+	/**
+	 * @return end of the current token
+	 */
+	public int getEnd() {
+		return tokens.getEnd(ndx);
+	}
+
+	/**
+	 * @return pairValue of the current token
+	 */
+	public byte getPairValue() {
+		return tokens.getPairValue(ndx);
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License 
+ *       at http://www.apache.org/licenses/LICENSE-2.0 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.  
+ */
+package jsyntaxpane;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Tokens of a SyntaxDocument, packed in primitive arrays instead of one
+ * Token object per token.  Tokens are kept sorted by start, and are
+ * accessed by index.  {@link #get(int)} creates a Token for callers that
+ * need one.
+ * The type ordinal and the pairValue of a token share one int.
+ *
+ * The arrays are gap buffers, so replacing the tokens around an edit and
+ * moving the tokens after it only costs in proportion to the distance from
+ * the previous edit, not to the number of tokens.
+ */
+final class TokenStore {
+
+	private static final TokenType[] TYPES = TokenType.values();
+	private final IntGapBuffer starts;
+	private final IntGapBuffer lengths;
+	private final IntGapBuffer kinds;
+	/**
+	 * Index of the other token of the pair of each token, or -1.  Built on
+	 * the first lookup, and dropped when the pairs may have changed.
+	 */
+	private int[] partners;
+
+	TokenStore() {
+		this(16);
+	}
+
+	TokenStore(int capacity) {
+		starts = new IntGapBuffer(capacity);
+		lengths = new IntGapBuffer(capacity);
+		kinds = new IntGapBuffer(capacity);
+	}
+
+	int size() {
+		return starts.size();
+	}
+
+	boolean isEmpty() {
+		return starts.size() == 0;
+	}
+
+	int getStart(int ndx) {
+		return starts.get(ndx);
+	}
+
+	int getLength(int ndx) {
+		return lengths.get(ndx);
+	}
+
+	int getEnd(int ndx) {
+		return starts.get(ndx) + lengths.get(ndx);
+	}
+
+	TokenType getType(int ndx) {
+		return TYPES[kinds.get(ndx) >> 8];
+	}
+
+	byte getPairValue(int ndx) {
+		return (byte) kinds.get(ndx);
+	}
+
+	/**
+	 * Create a Token for the token at the given index
+	 * @param ndx
+	 * @return
+	 */
+	Token get(int ndx) {
+		return new Token(getType(ndx), getStart(ndx), getLength(ndx), getPairValue(ndx));
+	}
+
+	/**
+	 * Get the index of the token that pairs with the token at ndx.  Tokens
+	 * pair up like nested brackets: an opening token with pairValue X pairs
+	 * with the closing token with pairValue -X that brings the nesting of X
+	 * back to where it was.
+	 * @param ndx
+	 * @return index of the other token, or -1 if the token is not part of
+	 * a pair, or has no partner
+	 */
+	int getPair(int ndx) {
+		if (partners == null) {
+			partners = matchPairs();
+		}
+		return partners[ndx];
+	}
+
+	private int[] matchPairs() {
+		int size = size();
+		int[] result = new int[size];
+		// a stack of open tokens per pair value, linked through below
+		int[] below = new int[size];
+		int[] top = new int[129];
+		Arrays.fill(top, -1);
+		for (int i = 0; i < size; i++) {
+			result[i] = -1;
+			int v = getPairValue(i);
+			if (v > 0) {
+				below[i] = top[v];
+				top[v] = i;
+			} else if (v < 0 && top[-v] >= 0) {
+				int open = top[-v];
+				top[-v] = below[open];
+				result[open] = i;
+				result[i] = open;
+			}
+		}
+		return result;
+	}
+
+	void add(TokenType type, int start, int length, byte pairValue) {
+		partners = null;
+		starts.add(start);
+		lengths.add(length);
+		kinds.add((type.ordinal() << 8) | (pairValue & 0xff));
+	}
+
+	void add(Token t) {
+		add(t.type, t.start, t.length, t.pairValue);
+	}
+
+	void addAll(List<Token> toks) {
+		for (Token t : toks) {
+			add(t);
+		}
+	}
+
+	/**
+	 * Add the tokens from (inclusive) to (exclusive) of another store
+	 * @param src
+	 * @param from
+	 * @param to
+	 */
+	void addAll(TokenStore src, int from, int to) {
+		partners = null;
+		for (int i = from; i < to; i++) {
+			starts.add(src.starts.get(i));
+			lengths.add(src.lengths.get(i));
+			kinds.add(src.kinds.get(i));
+		}
+	}
+
+	/**
+	 * Binary search for a token, ordered the same way as Token.compareTo:
+	 * by start, then length, then type.
+	 * @param start
+	 * @param length
+	 * @param type
+	 * @return index of the token, or (-(insertion point) - 1) if not found,
+	 * same as Collections.binarySearch
+	 */
+	int search(int start, int length, TokenType type) {
+		int low = 0;
+		int high = size() - 1;
+		int ordinal = type.ordinal();
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = starts.get(mid) - start;
+			if (cmp == 0) {
+				cmp = lengths.get(mid) - length;
+				if (cmp == 0) {
+					cmp = (kinds.get(mid) >> 8) - ordinal;
+				}
+			}
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Return the index of the given token, or -1 if it is not in the store
+	 * @param t
+	 * @return
+	 */
+	int indexOf(Token t) {
+		int ndx = search(t.start, t.length, t.type);
+		return ndx < 0 ? -1 : ndx;
+	}
+
+	/**
+	 * Replace the tokens from (inclusive) to (exclusive) with the given ones
+	 * @param from
+	 * @param to
+	 * @param replacement
+	 */
+	void replace(int from, int to, TokenStore replacement) {
+		// the pairs stay the same if the pair tokens did, which is the case
+		// for most edits within a token
+		int[] kept = samePairs(from, to, replacement) ? partners : null;
+		remove(from, to);
+		partners = kept;
+		starts.insert(from, replacement.starts);
+		lengths.insert(from, replacement.lengths);
+		kinds.insert(from, replacement.kinds);
+	}
+
+	/**
+	 * Remove the tokens from (inclusive) to (exclusive)
+	 * @param from
+	 * @param to
+	 */
+	private boolean samePairs(int from, int to, TokenStore replacement) {
+		if (replacement.size() != to - from) {
+			return false;
+		}
+		for (int i = from; i < to; i++) {
+			if (getPairValue(i) != replacement.getPairValue(i - from)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void remove(int from, int to) {
+		partners = null;
+		starts.remove(from, to);
+		lengths.remove(from, to);
+		kinds.remove(from, to);
+	}
+
+	/**
+	 * Move the tokens from the given index to the end by delta
+	 * @param from
+	 * @param delta
+	 */
+	void shift(int from, int delta) {
+		starts.shift(from, delta);
+	}
+}
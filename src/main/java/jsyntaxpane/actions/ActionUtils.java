@@ -15,8 +15,6 @@ package jsyntaxpane.actions;
 
 import java.awt.Component;
 import java.awt.Frame;
-import java.awt.Point;
-import java.awt.Rectangle;
 import java.awt.Window;
 import java.awt.event.KeyEvent;
 import java.util.logging.Level;
@@ -34,6 +32,7 @@ import javax.swing.text.EditorKit;
 import javax.swing.text.Element;
 import javax.swing.text.JTextComponent;
 import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
 import jsyntaxpane.DefaultSyntaxKit;
 import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.Token;
@@ -236,30 +235,49 @@ public class ActionUtils {
 		if(pos == 0) {
 			return 0;
 		}
-		Rectangle r = editor.modelToView(pos);
-		int start = editor.viewToModel(new Point(0, r.y));
-		int column = pos - start;
-		return column;
+		if (pos < 0 || pos > editor.getDocument().getLength()) {
+			throw new BadLocationException("Invalid position", pos);
+		}
+		Element root = editor.getDocument().getDefaultRootElement();
+		int start = root.getElement(root.getElementIndex(pos)).getStartOffset();
+		return pos - start;
 	}
 
 	/**
 	 * Get the closest position within the document of the component that
-	 * has given line and column.
+	 * has given line and column.  The column is counted from the start of
+	 * the line, with tabs reaching to the next tab stop, so it matches the
+	 * columns of a fixed pitch font.
 	 * @param editor
 	 * @param line the first being 1
-	 * @param column the first being 1
+	 * @param column the columns before the position, the first being 0
 	 * @return the closest positon for the text component at given line and
 	 * column
 	 */
 	public static int getDocumentPosition(JTextComponent editor, int line,
 		int column) {
-		int lineHeight = editor.getFontMetrics(editor.getFont()).getHeight();
-		int charWidth = editor.getFontMetrics(editor.getFont()).charWidth('m');
-		int y = line * lineHeight;
-		int x = column * charWidth;
-		Point pt = new Point(x, y);
-		int pos = editor.viewToModel(pt);
-		return pos;
+		Document doc = editor.getDocument();
+		Element root = doc.getDefaultRootElement();
+		line = Math.max(0, Math.min(line - 1, root.getElementCount() - 1));
+		Element elem = root.getElement(line);
+		int start = elem.getStartOffset();
+		int end = Math.min(elem.getEndOffset() - 1, doc.getLength());
+		int tabSize = Math.max(1, getTabSize(editor));
+		Segment text = new Segment();
+		try {
+			doc.getText(start, end - start, text);
+		} catch (BadLocationException ex) {
+			Logger.getLogger(ActionUtils.class.getName()).log(Level.SEVERE, null, ex);
+			return start;
+		}
+		int col = 0;
+		for (int i = 0; i < text.count; i++) {
+			if (col >= column) {
+				return start + i;
+			}
+			col = (text.array[text.offset + i] == '\t') ? (col / tabSize + 1) * tabSize : col + 1;
+		}
+		return end;
 	}
 
 	public static int getLineCount(JTextComponent pane) {
@@ -546,7 +564,7 @@ public class ActionUtils {
 	 * Sets the caret position of the given target to the given line and column
 	 * @param target
 	 * @param line the first being 1
-	 * @param column the first being 1
+	 * @param column the columns before the position, the first being 0
 	 */
 	public static void setCaretPosition(JTextComponent target, int line, int column) {
 		int p = getDocumentPosition(target, line, column);
@@ -20,6 +20,7 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.JTextComponent;
 import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.Token;
+import jsyntaxpane.TokenCursor;
 import jsyntaxpane.TokenType;
 
 /**
@@ -47,7 +48,8 @@ public class JIndentAction extends DefaultSyntaxAction {
 		String line = ActionUtils.getLine(target);
 		String lineToPos = line.substring(0, pos - start);
 		String prefix = ActionUtils.getIndent(line);
-		Token t = sDoc.getTokenAt(pos);
+		TokenCursor cursor = sDoc.getTokenCursor();
+		Token t = cursor.seek(pos) ? cursor.get() : null;
 		if (TokenType.isComment(t)) {
 			String trimmed = line.trim();
 			if (trimmed.startsWith("/*") && trimmed.endsWith("*/")) {
@@ -69,13 +71,34 @@ public class JIndentAction extends DefaultSyntaxAction {
 			}
 		} else if (lineToPos.trim().endsWith("{")) {
 			prefix += ActionUtils.getTab(target);
-		} else {
-			String noComment = sDoc.getUncommentedText(start, pos); // skip EOL comments
-
-			if (noComment.trim().endsWith("{")) {
-				prefix += ActionUtils.getTab(target);
-			}
+		} else if (opensBlock(sDoc, cursor, start, pos)) { // skip EOL comments
+			prefix += ActionUtils.getTab(target);
 		}
 		target.replaceSelection("\n" + prefix);
 	}
+
+	/**
+	 * Check if the last token that is not a comment before pos, on the line
+	 * starting at start, ends with a "{".  Only the text of the token before
+	 * pos is looked at, the caret may be inside the token.
+	 * @param sDoc
+	 * @param cursor positioned by seek(pos)
+	 * @param start
+	 * @param pos
+	 * @return
+	 */
+	private boolean opensBlock(SyntaxDocument sDoc, TokenCursor cursor, int start, int pos) {
+		if (cursor.isValid() && cursor.getStart() >= pos) {
+			cursor.prev();
+		}
+		while (cursor.isValid() && cursor.getEnd() > start && TokenType.isComment(cursor.get())) {
+			cursor.prev();
+		}
+		if (!cursor.isValid() || cursor.getEnd() <= start) {
+			return false;
+		}
+		CharSequence text = cursor.get().getText(sDoc);
+		int end = Math.min(cursor.getEnd(), pos) - cursor.getStart();
+		return end > 0 && end <= text.length() && text.charAt(end - 1) == '{';
+	}
 }
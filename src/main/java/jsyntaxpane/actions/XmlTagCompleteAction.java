@@ -17,6 +17,7 @@ import java.awt.event.ActionEvent;
 import javax.swing.text.JTextComponent;
 import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.Token;
+import jsyntaxpane.TokenCursor;
 import jsyntaxpane.TokenType;
 
 /**
@@ -32,9 +33,10 @@ public class XmlTagCompleteAction extends DefaultSyntaxAction {
     @Override
     public void actionPerformed(JTextComponent target, SyntaxDocument sDoc,
             int dot, ActionEvent e) {
-        Token tok = sDoc.getTokenAt(dot);
-        while (tok != null && tok.type != TokenType.TYPE) {
-            tok = sDoc.getPrevToken(tok);
+        TokenCursor cursor = sDoc.getTokenCursor();
+        Token tok = null;
+        if (cursor.seek(dot)) {
+            tok = (cursor.getType() == TokenType.TYPE) ? cursor.get() : cursor.prev(TokenType.TYPE);
         }
         if (tok == null) {
             target.replaceSelection(">");
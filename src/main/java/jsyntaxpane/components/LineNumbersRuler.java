@@ -21,9 +21,13 @@ import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Insets;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import javax.swing.BorderFactory;
@@ -45,8 +49,9 @@ import jsyntaxpane.actions.gui.GotoLineDialog;
 import jsyntaxpane.util.Configuration;
 
 /**
- * This class will display line numbers for a related text component. The text
- * component must use the same line height for each line. 
+ * This class will display line numbers for a related text component.  The
+ * numbers are drawn at the positions of the lines in the text component, and
+ * only the lines within the clip are drawn.
  *
  * This class was designed to be used as a component added to the row header
  * of a JScrollPane.
@@ -81,8 +86,12 @@ public class LineNumbersRuler extends JPanel
 	private int lastHeight;
 	private int lastLine;
 	private MouseListener mouseListener = null;
-	// The formatting to use for displaying numbers.  Use in String.format(numbersFormat, line)
-	private String numbersFormat = "%3d";
+	// The digits of the line being drawn, right aligned to lastDigits
+	private char[] digits = new char[10];
+	// The glyphs of '0' to '9', shaped for digitsFont and digitsContext
+	private final GlyphVector[] digitGlyphs = new GlyphVector[10];
+	private Font digitsFont;
+	private FontRenderContext digitsContext;
 
 	private Color currentLineColor;
 
@@ -187,7 +196,6 @@ public class LineNumbersRuler extends JPanel
 
 		if (lastDigits != digits) {
 			lastDigits = digits;
-			numbersFormat = "%" + digits + "d";
 			FontMetrics fontMetrics = getFontMetrics(getFont());
 			int width = fontMetrics.charWidth('0') * digits;
 			Insets insets = getInsets();
@@ -202,7 +210,8 @@ public class LineNumbersRuler extends JPanel
 	}
 
 	/**
-	 *  Draw the line numbers
+	 *  Draw the numbers of the lines within the clip, at the positions of the
+	 *  lines in the editor
 	 */
 	@Override
 	public void paintComponent(Graphics g) {
@@ -210,30 +219,84 @@ public class LineNumbersRuler extends JPanel
 
 		FontMetrics fontMetrics = editor.getFontMetrics(editor.getFont());
 		Insets insets = getInsets();
-		int currentLine = -1;
+		Rectangle clip = g.getClipBounds();
+		Element root = editor.getDocument().getDefaultRootElement();
+		int currentLine = root.getElementIndex(editor.getCaretPosition());
+		SyntaxView.setRenderingHits((Graphics2D) g);
+		updateDigitGlyphs((Graphics2D) g);
+		int advance = g.getFontMetrics().charWidth('0');
+
+		int line = root.getElementIndex(editor.viewToModel(new Point(0, clip.y)));
+		int maxLines = root.getElementCount();
 		try {
-			// get current line, and add one as we start from 1 for the display
-			currentLine = ActionUtils.getLineNumber(editor, editor.getCaretPosition()) + 1;
+			for (; line < maxLines; line++) {
+				Rectangle r = editor.modelToView(root.getElement(line).getStartOffset());
+				if (r == null || r.y >= clip.y + clip.height) {
+					break;
+				}
+				int y = r.y + fontMetrics.getAscent();
+				if (line == currentLine) {
+					g.setColor(currentLineColor);
+					g.fillRect(0, r.y, getWidth(), r.height);
+				}
+				g.setColor(getForeground());
+				int from = formatDigits(line + 1);
+				int x = insets.left + (lastDigits - digits.length + from) * advance;
+				for (int i = from; i < digits.length; i++, x += advance) {
+					((Graphics2D) g).drawGlyphVector(digitGlyphs[digits[i] - '0'], x, y);
+				}
+			}
 		} catch (BadLocationException ex) {
-			// this wont happen, even if it does, we can ignore it and we will not have
-			// a current line to worry about...
+			// the lines were read from the document, this wont happen
 		}
+	}
 
-		int lh = fontMetrics.getHeight();
-		int maxLines = ActionUtils.getLineCount(editor);
-		SyntaxView.setRenderingHits((Graphics2D) g);
+	/**
+	 * Write the digits of number to the end of the digits buffer
+	 * @param number
+	 * @return index of the first digit in the buffer
+	 */
+	private int formatDigits(int number) {
+		int ndx = digits.length;
+		do {
+			digits[--ndx] = (char) ('0' + number % 10);
+			number /= 10;
+		} while (number > 0);
+		return ndx;
+	}
 
-		for (int line = 1; line <= maxLines; line++) {
-			String lineNumber = String.format(numbersFormat, line);
-			int y = line * lh;
-			if (line == currentLine) {
-				g.setColor(currentLineColor);
-				g.fillRect(0, y - lh + fontMetrics.getDescent() - 1, getWidth(), lh);
-				g.setColor(getForeground());
-				g.drawString(lineNumber, insets.left, y);
-			} else {
-				g.drawString(lineNumber, insets.left, y);
+	/**
+	 * Shape the digit glyphs again if the font or the rendering of g changed
+	 * @param g
+	 */
+	private void updateDigitGlyphs(Graphics2D g) {
+		Font font = g.getFont();
+		FontRenderContext frc = g.getFontRenderContext();
+		if (!font.equals(digitsFont) || !frc.equals(digitsContext)) {
+			for (int i = 0; i < digitGlyphs.length; i++) {
+				digitGlyphs[i] = font.createGlyphVector(frc, new char[]{(char) ('0' + i)});
+			}
+			digitsFont = font;
+			digitsContext = frc;
+		}
+	}
+
+	/**
+	 * Repaint the number of the given line only
+	 * @param line
+	 */
+	private void repaintLine(int line) {
+		Element root = editor.getDocument().getDefaultRootElement();
+		if (line < 0 || line >= root.getElementCount()) {
+			return;
+		}
+		try {
+			Rectangle r = editor.modelToView(root.getElement(line).getStartOffset());
+			if (r != null) {
+				repaint(0, r.y, getWidth(), r.height);
 			}
+		} catch (BadLocationException ex) {
+			repaint();
 		}
 	}
 
@@ -251,7 +314,8 @@ public class LineNumbersRuler extends JPanel
 		//  Need to repaint so the correct line number can be highlighted
 
 		if (lastLine != currentLine) {
-			repaint();
+			repaintLine(lastLine);
+			repaintLine(currentLine);
 			lastLine = currentLine;
 		}
 	}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane.components;
+
+import java.awt.Graphics;
+import java.awt.Shape;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.View;
+import jsyntaxpane.components.Markers.SimpleMarker;
+
+/**
+ * A Highlighter that keeps the ranges of the {@link Markers} apart from
+ * the other highlights, in a layer for each SimpleMarker.
+ *
+ * The ranges of a layer are kept sorted in arrays, so painting a line only
+ * looks at the ranges of the line, and a whole layer is removed at once.
+ * The ranges follow the edits of the document like positions would, but
+ * the ranges after an edit are moved lazily, by a delta kept for all of
+ * them, as in a gap buffer.
+ *
+ * Other highlights, like the selection, are handled by DefaultHighlighter.
+ */
+public class MarkerHighlighter extends DefaultHighlighter {
+
+    private final Map<SimpleMarker, Layer> layers = new LinkedHashMap<SimpleMarker, Layer>();
+    private JTextComponent component;
+    private Document document;
+    // the range to repaint for the markers added since the last repaint
+    private int dirtyStart = Integer.MAX_VALUE;
+    private int dirtyEnd = -1;
+    private final Handler handler = new Handler();
+
+    @Override
+    public void install(JTextComponent c) {
+        super.install(c);
+        component = c;
+        c.addPropertyChangeListener("document", handler);
+        setDocument(c.getDocument());
+    }
+
+    @Override
+    public void deinstall(JTextComponent c) {
+        super.deinstall(c);
+        c.removePropertyChangeListener("document", handler);
+        setDocument(null);
+        layers.clear();
+        component = null;
+    }
+
+    private void setDocument(Document doc) {
+        if (document != null) {
+            document.removeDocumentListener(handler);
+        }
+        document = doc;
+        if (document != null) {
+            document.addDocumentListener(handler);
+        }
+    }
+
+    /**
+     * Mark the text from start to end with the given marker
+     * @param start
+     * @param end
+     * @param marker
+     */
+    public void addMarker(int start, int end, SimpleMarker marker) {
+        if (end < start) {
+            return;
+        }
+        Layer layer = layers.get(marker);
+        if (layer == null) {
+            layer = new Layer();
+            layers.put(marker, layer);
+        }
+        layer.add(start, end);
+        damage(start, end);
+    }
+
+    /**
+     * Remove the ranges of a marker
+     * @param marker the marker, or null to remove all markers
+     */
+    public void removeMarkers(SimpleMarker marker) {
+        if (marker == null) {
+            for (Layer layer : layers.values()) {
+                damage(layer);
+            }
+            layers.clear();
+        } else {
+            Layer layer = layers.remove(marker);
+            if (layer != null) {
+                damage(layer);
+            }
+        }
+    }
+
+    /**
+     * @param marker
+     * @return the ranges of the marker, or null if there are none
+     */
+    Layer getLayer(SimpleMarker marker) {
+        return layers.get(marker);
+    }
+
+    @Override
+    public void paintLayeredHighlights(Graphics g, int p0, int p1, Shape viewBounds,
+            JTextComponent editor, View view) {
+        for (Map.Entry<SimpleMarker, Layer> e : layers.entrySet()) {
+            Layer layer = e.getValue();
+            for (int i = layer.firstEndingAfter(p0); i < layer.size(); i++) {
+                int start = layer.getStart(i);
+                if (start >= p1) {
+                    break;
+                }
+                int end = layer.getEnd(i);
+                // the same ranges DefaultHighlighter paints
+                if ((p0 < start && p1 > start) || (p0 >= start && p0 < end)) {
+                    e.getKey().paintLayer(g, Math.max(start, p0), Math.min(end, p1),
+                            viewBounds, editor, view);
+                }
+            }
+        }
+        super.paintLayeredHighlights(g, p0, p1, viewBounds, editor, view);
+    }
+
+    private void damage(Layer layer) {
+        if (layer.size() > 0) {
+            damage(layer.getStart(0), layer.getMaxEnd());
+        }
+    }
+
+    /**
+     * Repaint the text from start to end later, together with the other
+     * ranges changed until then
+     */
+    private void damage(int start, int end) {
+        boolean scheduled = dirtyEnd >= 0;
+        dirtyStart = Math.min(dirtyStart, start);
+        dirtyEnd = Math.max(dirtyEnd, end);
+        if (!scheduled) {
+            SwingUtilities.invokeLater(handler);
+        }
+    }
+
+    /**
+     * The ranges of one marker, sorted by their start.  The starts and ends
+     * from index shiftFrom on are shiftDelta less than they really are.
+     */
+    static final class Layer {
+
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int count;
+        private int shiftFrom;
+        private int shiftDelta;
+        // no range is longer than this, so only the ranges starting this
+        // much before an offset can cover it
+        private int maxLength;
+
+        int size() {
+            return count;
+        }
+
+        int getStart(int i) {
+            return (i < shiftFrom) ? starts[i] : starts[i] + shiftDelta;
+        }
+
+        int getEnd(int i) {
+            return (i < shiftFrom) ? ends[i] : ends[i] + shiftDelta;
+        }
+
+        /**
+         * @return the largest end of the ranges
+         */
+        int getMaxEnd() {
+            int max = 0;
+            for (int i = firstStartingAtOrAfter(getStart(count - 1) - maxLength); i < count; i++) {
+                max = Math.max(max, getEnd(i));
+            }
+            return max;
+        }
+
+        void add(int start, int end) {
+            int i = firstStartingAtOrAfter(start);
+            if (count == starts.length) {
+                starts = grow(starts);
+                ends = grow(ends);
+            }
+            System.arraycopy(starts, i, starts, i + 1, count - i);
+            System.arraycopy(ends, i, ends, i + 1, count - i);
+            count++;
+            if (i < shiftFrom) {
+                shiftFrom++;
+                starts[i] = start;
+                ends[i] = end;
+            } else {
+                starts[i] = start - shiftDelta;
+                ends[i] = end - shiftDelta;
+            }
+            maxLength = Math.max(maxLength, end - start);
+        }
+
+        /**
+         * @param offset
+         * @return index of the first range that may end after offset
+         */
+        int firstEndingAfter(int offset) {
+            int i = firstStartingAtOrAfter(offset - maxLength);
+            while (i < count && getEnd(i) <= offset && getStart(i) < offset) {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * Follow an insert of length chars at offset
+         */
+        void insert(int offset, int length) {
+            int i = firstStartingAtOrAfter(offset);
+            for (int j = firstEndingAfter(offset - 1); j < i; j++) {
+                // ranges covering offset grow
+                if (getEnd(j) >= offset) {
+                    setEnd(j, getEnd(j) + length);
+                }
+            }
+            shift(i, length);
+        }
+
+        /**
+         * Follow the removal of length chars at offset
+         */
+        void remove(int offset, int length) {
+            int removedEnd = offset + length;
+            int i = firstStartingAtOrAfter(offset);
+            for (int j = firstEndingAfter(offset); j < i; j++) {
+                int end = getEnd(j);
+                if (end > offset) {
+                    setEnd(j, (end <= removedEnd) ? offset : end - length);
+                }
+            }
+            // the ranges starting in the removed text start at offset, and
+            // are dropped if nothing of them is left
+            int k = i;
+            int kept = i;
+            for (; k < count && getStart(k) <= removedEnd; k++) {
+                int end = getEnd(k);
+                end = (end <= removedEnd) ? offset : end - length;
+                if (end > offset) {
+                    starts[kept] = offset - ((kept < shiftFrom) ? 0 : shiftDelta);
+                    ends[kept] = end - ((kept < shiftFrom) ? 0 : shiftDelta);
+                    kept++;
+                }
+            }
+            if (kept < k) {
+                // the ranges moved down keep their side of shiftFrom
+                System.arraycopy(starts, k, starts, kept, count - k);
+                System.arraycopy(ends, k, ends, kept, count - k);
+                count -= k - kept;
+                if (shiftFrom > kept) {
+                    shiftFrom = Math.max(kept, shiftFrom - (k - kept));
+                }
+            }
+            shift(kept, -length);
+        }
+
+        private void setEnd(int i, int end) {
+            ends[i] = (i < shiftFrom) ? end : end - shiftDelta;
+            maxLength = Math.max(maxLength, end - getStart(i));
+        }
+
+        /**
+         * Move the ranges from index from on by delta, by moving shiftFrom
+         * to from, and adding delta to shiftDelta
+         */
+        private void shift(int from, int delta) {
+            while (shiftFrom < from) {
+                starts[shiftFrom] += shiftDelta;
+                ends[shiftFrom] += shiftDelta;
+                shiftFrom++;
+            }
+            while (shiftFrom > from) {
+                shiftFrom--;
+                starts[shiftFrom] -= shiftDelta;
+                ends[shiftFrom] -= shiftDelta;
+            }
+            shiftDelta += delta;
+        }
+
+        private int firstStartingAtOrAfter(int offset) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (getStart(mid) < offset) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private static int[] grow(int[] a) {
+            int[] result = new int[a.length * 2];
+            System.arraycopy(a, 0, result, 0, a.length);
+            return result;
+        }
+    }
+
+    private class Handler implements DocumentListener, PropertyChangeListener, Runnable {
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            for (Layer layer : layers.values()) {
+                layer.insert(e.getOffset(), e.getLength());
+            }
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            for (Layer layer : layers.values()) {
+                layer.remove(e.getOffset(), e.getLength());
+            }
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            layers.clear();
+            setDocument(component.getDocument());
+        }
+
+        @Override
+        public void run() {
+            int start = dirtyStart;
+            int end = dirtyEnd;
+            dirtyStart = Integer.MAX_VALUE;
+            dirtyEnd = -1;
+            if (component != null && component.getUI() != null) {
+                int length = component.getDocument().getLength();
+                start = Math.min(start, length);
+                end = Math.min(end, length);
+                component.getUI().damageRange(component, start, end);
+            }
+        }
+    }
+}
@@ -52,6 +52,10 @@ public class Markers {
      */
     public static void removeMarkers(JTextComponent component, SimpleMarker marker) {
         Highlighter hilite = component.getHighlighter();
+        if (hilite instanceof MarkerHighlighter) {
+            ((MarkerHighlighter) hilite).removeMarkers(marker);
+            return;
+        }
         Highlighter.Highlight[] hilites = hilite.getHighlights();
 
         for (int i = 0; i < hilites.length; i++) {
@@ -96,16 +100,16 @@ public class Markers {
             int selEnd = pane.getSelectionEnd();
             // if there is no selection or selection does not overlap
             if(selStart == selEnd || end < selStart || start > selStart) {
-                hiliter.addHighlight(start, end, marker);
+                addHighlight(hiliter, start, end, marker);
                 return;
             }
             // selection starts within the highlight, highlight before slection
             if(selStart > start && selStart < end ) {
-                hiliter.addHighlight(start, selStart, marker);
+                addHighlight(hiliter, start, selStart, marker);
             }
             // selection ends within the highlight, highlight remaining
             if(selEnd > start && selEnd < end ) {
-                hiliter.addHighlight(selEnd, end, marker);
+                addHighlight(hiliter, selEnd, end, marker);
             }
 
         } catch (BadLocationException ex) {
@@ -114,6 +118,19 @@ public class Markers {
         }
     }
 
+    /**
+     * Add the range to the layer of the marker if the highlighter keeps
+     * markers apart, or as a highlight otherwise
+     */
+    private static void addHighlight(Highlighter hiliter, int start, int end,
+            SimpleMarker marker) throws BadLocationException {
+        if (hiliter instanceof MarkerHighlighter) {
+            ((MarkerHighlighter) hiliter).addMarker(start, end, marker);
+        } else {
+            hiliter.addHighlight(start, end, marker);
+        }
+    }
+
     /**
      * Mark all text in the document that matches the given pattern
      * @param pane control to use
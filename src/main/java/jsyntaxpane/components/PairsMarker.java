@@ -26,6 +26,9 @@ import javax.swing.event.CaretListener;
 import javax.swing.text.JTextComponent;
 import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.Token;
+import jsyntaxpane.TokenChangeEvent;
+import jsyntaxpane.TokenChangeListener;
+import jsyntaxpane.TokenCursor;
 import jsyntaxpane.util.Configuration;
 
 import static java.util.Arrays.asList;
@@ -37,7 +40,8 @@ import static java.util.Collections.emptyList;
  *
  * @author Ayman Al-Sairafi
  */
-public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChangeListener {
+public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChangeListener,
+        TokenChangeListener {
     public static final String PROPERTY_COLOR = "PairMarker.Color";
     private static final Color DEFAULT_MARKER_COLOR = new Color(0xeeee33);
     private JTextComponent pane;
@@ -49,8 +53,22 @@ public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChan
 
     @Override
     public void caretUpdate(CaretEvent e) {
+        markPairAt(e.getDot());
+    }
+
+    /**
+     * The pair at the caret changes without the caret moving when the
+     * tokens are lexed in the background, or when a bracket is typed
+     * elsewhere
+     * @param e
+     */
+    @Override
+    public void tokensChanged(TokenChangeEvent e) {
+        markPairAt(pane.getCaretPosition());
+    }
+
+    private void markPairAt(int pos) {
         removeMarkers();
-        int pos = e.getDot();
         SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
         if (doc != null) {
             List<Token> tokens = getPairTokens(doc, pos);
@@ -63,9 +81,10 @@ public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChan
 
     List<Token> getPairTokens(SyntaxDocument doc, int pos) {
         List<Token> tokens = emptyList();
-        Token token = this.getPairToken(doc, pos);
-        if (token != null) {
-            Token other = doc.getPairFor(token);
+        TokenCursor cursor = doc.getTokenCursor();
+        if (findPairToken(cursor, pos)) {
+            Token token = cursor.get();
+            Token other = cursor.pair();
             if (other != null) {
                 if (other.start > token.start) {
                     tokens = asList(token, other);
@@ -78,23 +97,24 @@ public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChan
         return tokens;
     }
 
-    private Token getPairToken(SyntaxDocument doc, int pos) {
-        Token token = doc.getTokenAt(pos);
-        if (token != null) {
-            if (token.pairValue == 0 &&
-                token.type != TokenType.IDENTIFIER &&
-                pos != 0) {
-                Token prevToken = doc.getTokenAt(pos - 1);
-                if (prevToken != null && prevToken.start == pos - prevToken.length) {
-                    token = prevToken;
-                }
-            }
-            if (token.pairValue == 0) {
-                token = null;
+    /**
+     * Move the cursor to the paired token at pos, or to the one ending at
+     * pos if the token at pos is not paired
+     * @return true if such a token was found
+     */
+    private boolean findPairToken(TokenCursor cursor, int pos) {
+        if (!cursor.seek(pos)) {
+            return false;
+        }
+        if (cursor.getPairValue() == 0 &&
+            cursor.getType() != TokenType.IDENTIFIER &&
+            pos != 0 && cursor.getEnd() != pos) {
+            cursor.prev();
+            if (!cursor.isValid() || cursor.getEnd() != pos) {
+                return false;
             }
         }
-
-        return token;
+        return cursor.getPairValue() != 0;
     }
 
     /**
@@ -115,6 +135,10 @@ public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChan
     public void install(JEditorPane editor) {
         pane = editor;
         pane.addCaretListener(this);
+        SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
+        if (doc != null) {
+            doc.addTokenChangeListener(this);
+        }
         status = Status.INSTALLING;
     }
 
@@ -122,6 +146,10 @@ public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChan
     public void deinstall(JEditorPane editor) {
         status = Status.DEINSTALLING;
         pane.removeCaretListener(this);
+        SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
+        if (doc != null) {
+            doc.removeTokenChangeListener(this);
+        }
         removeMarkers();
     }
 
@@ -129,8 +157,14 @@ public class PairsMarker implements CaretListener, SyntaxComponent, PropertyChan
     public void propertyChange(PropertyChangeEvent evt) {
         if (evt.getPropertyName().equals("document")) {
                 pane.removeCaretListener(this);
+            if (evt.getOldValue() instanceof SyntaxDocument) {
+                ((SyntaxDocument) evt.getOldValue()).removeTokenChangeListener(this);
+            }
             if (status.equals(Status.INSTALLING)) {
                 pane.addCaretListener(this);
+                if (evt.getNewValue() instanceof SyntaxDocument) {
+                    ((SyntaxDocument) evt.getNewValue()).addTokenChangeListener(this);
+                }
                 removeMarkers();
             }
         }
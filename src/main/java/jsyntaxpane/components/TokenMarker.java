@@ -18,7 +18,6 @@ import jsyntaxpane.actions.*;
 import java.awt.Color;
 import java.beans.PropertyChangeListener;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.logging.Logger;
 import javax.swing.JEditorPane;
@@ -26,6 +25,8 @@ import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import jsyntaxpane.SyntaxDocument;
 import jsyntaxpane.Token;
+import jsyntaxpane.TokenChangeEvent;
+import jsyntaxpane.TokenChangeListener;
 import jsyntaxpane.TokenType;
 import jsyntaxpane.util.Configuration;
 
@@ -35,7 +36,8 @@ import jsyntaxpane.util.Configuration;
  * 
  * @author Ayman Al-Sairafi
  */
-public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChangeListener {
+public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChangeListener,
+        TokenChangeListener {
 
     public static final String DEFAULT_TOKENTYPES = "IDENTIFIER, TYPE, TYPE2, TYPE3";
     public static final String PROPERTY_COLOR = "TokenMarker.Color";
@@ -57,6 +59,17 @@ public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChan
         markTokenAt(e.getDot());
     }
 
+    /**
+     * Occurrences of the token at the caret may be added or removed
+     * anywhere, and the token at the caret changes without the caret moving
+     * when the tokens are lexed in the background
+     * @param e
+     */
+    @Override
+    public void tokensChanged(TokenChangeEvent e) {
+        markTokenAt(pane.getCaretPosition());
+    }
+
     public void markTokenAt(int pos) {
         SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
         if (doc != null) {
@@ -76,25 +89,19 @@ public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChan
     }
 
     /**
-     * add highlights for the given pattern
-     * @param pattern
+     * add highlights for all the tokens with the same text as tok
+     * @param tok
      */
     void addMarkers(Token tok) {
         SyntaxDocument sDoc = (SyntaxDocument) pane.getDocument();
         sDoc.readLock();
-        // we need to create a STring, because the CharSequence does not have an
-        // equals method and Object.equals is called.  It will not match
-        String text = tok.getText(sDoc).toString();
-        Iterator<Token> it = sDoc.getTokens(0, sDoc.getLength());
-        while (it.hasNext()) {
-            Token nextToken = it.next();
-            String nextText = nextToken.getText(sDoc).toString();
-            if (text.equals(nextText)) {
-                Markers.markToken(pane, nextToken, marker);
+        try {
+            for (Token t : sDoc.getOccurrences(tok, tokenTypes)) {
+                Markers.markToken(pane, t, marker);
             }
-
+        } finally {
+            sDoc.readUnlock();
         }
-        sDoc.readUnlock();
     }
 
     @Override
@@ -121,6 +128,10 @@ public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChan
     public void install(JEditorPane editor) {
         this.pane = editor;
         pane.addCaretListener(this);
+        SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
+        if (doc != null) {
+            doc.addTokenChangeListener(this);
+        }
         markTokenAt(editor.getCaretPosition());
         status = Status.INSTALLING;
     }
@@ -130,6 +141,10 @@ public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChan
         status = Status.DEINSTALLING;
         removeMarkers();
         pane.removeCaretListener(this);
+        SyntaxDocument doc = ActionUtils.getSyntaxDocument(pane);
+        if (doc != null) {
+            doc.removeTokenChangeListener(this);
+        }
     }
     private static final Logger LOG = Logger.getLogger(TokenMarker.class.getName());
 
@@ -137,8 +152,14 @@ public class TokenMarker implements SyntaxComponent, CaretListener, PropertyChan
     public void propertyChange(PropertyChangeEvent evt) {
         if (evt.getPropertyName().equals("document")) {
                 pane.removeCaretListener(this);
+            if (evt.getOldValue() instanceof SyntaxDocument) {
+                ((SyntaxDocument) evt.getOldValue()).removeTokenChangeListener(this);
+            }
             if (status.equals(Status.INSTALLING)) {
                 pane.addCaretListener(this);
+                if (evt.getNewValue() instanceof SyntaxDocument) {
+                    ((SyntaxDocument) evt.getNewValue()).addTokenChangeListener(this);
+                }
                 removeMarkers();
             }
         }
@@ -17,6 +17,7 @@ import java.io.CharArrayReader;
 import jsyntaxpane.*;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,7 +29,7 @@ import javax.swing.text.Segment;
  *
  * @author Ayman Al-Sairafi
  */
-public abstract class DefaultJFlexLexer implements Lexer {
+public abstract class DefaultJFlexLexer implements StatefulLexer {
 
     protected int tokenStart;
     protected int tokenLength;
@@ -96,15 +97,204 @@ public abstract class DefaultJFlexLexer implements Lexer {
      */
     @Override
     public void parse(Segment segment, int ofst, List<Token> tokens) {
+        start(segment, ofst);
+        for (Token t = nextToken(); t != null; t = nextToken()) {
+            tokens.add(t);
+        }
+    }
+
+    /**
+     * Prepare the lexer to return the tokens of the given segment one at a
+     * time from {@link #nextToken()}.  The lexer starts in its initial state.
+     * @param segment Text to parse.
+     * @param ofst offset to add to start of each token
+     */
+    public void start(Segment segment, int ofst) {
+        start(segment, ofst, null);
+    }
+
+    /**
+     * Prepare the lexer to return the tokens read from the given Reader from
+     * {@link #nextToken()}.  Token positions start from 0.
+     * Only the text of the pending token and JFlex's read ahead buffer are
+     * kept in memory, so this can lex a text of any length.
+     * @param reader
+     */
+    public void start(Reader reader) {
+        yyreset(reader);
+        this.offset = 0;
+    }
+
+    @Override
+    public void start(Segment segment, int ofst, Object state) {
+        yyreset(segment.array, segment.offset, segment.count);
+        this.offset = ofst;
+        if (state != null) {
+            State s = (State) state;
+            yybegin(s.lexicalState);
+            // the pending token started before the segment
+            tokenStart = -s.pendingStart;
+            tokenLength = s.pendingLength;
+            setGrammarState(s.grammarState);
+        }
+    }
+
+    @Override
+    public Token nextToken() {
         try {
-            CharArrayReader reader = new CharArrayReader(segment.array, segment.offset, segment.count);
-            yyreset(reader);
-            this.offset = ofst;
-            for (Token t = yylex(); t != null; t = yylex()) {
-                tokens.add(t);
-            }
+            return yylex();
         } catch (IOException ex) {
             Logger.getLogger(DefaultJFlexLexer.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public int getPosition() {
+        return offset + yychar() + yylength();
+    }
+
+    @Override
+    public int getExtent() {
+        int extent = yyextent();
+        return (extent == Integer.MAX_VALUE) ? extent : offset + extent;
+    }
+
+    /**
+     * The state is the JFlex lexical state, the start and length of the token
+     * being built in that state, and any grammar specific state returned
+     * from {@link #getGrammarState()}.
+     * @return
+     */
+    @Override
+    public Object getState() {
+        int state = yystate();
+        if (state == 0) {
+            // no token is pending in the initial state
+            return new State(0, 0, 0, getGrammarState());
+        }
+        return new State(state, yychar() + yylength() - tokenStart, tokenLength, getGrammarState());
+    }
+
+    /**
+     * The state is written as the JFlex lexical state, the start and length
+     * of the pending token, followed by the values of the grammar state from
+     * {@link #encodeGrammarState(Object)}.
+     * @param state
+     * @return
+     */
+    @Override
+    public int[] encodeState(Object state) {
+        State s = (State) state;
+        int[] grammar = encodeGrammarState(s.grammarState);
+        if (grammar == null) {
+            return null;
+        }
+        int[] values = new int[3 + grammar.length];
+        values[0] = s.lexicalState;
+        values[1] = s.pendingStart;
+        values[2] = s.pendingLength;
+        System.arraycopy(grammar, 0, values, 3, grammar.length);
+        return values;
+    }
+
+    @Override
+    public Object decodeState(int[] values) {
+        if (values.length < 3 || values[0] < 0 || values[1] < 0 || values[2] < 0) {
+            throw new IllegalArgumentException("Not a lexer state: " + Arrays.toString(values));
+        }
+        Object grammar = decodeGrammarState(Arrays.copyOfRange(values, 3, values.length));
+        return new State(values[0], values[1], values[2], grammar);
+    }
+
+    /**
+     * Lexers that keep more state in their own fields than the JFlex lexical
+     * state, tokenStart and tokenLength should override this to return it,
+     * and {@link #setGrammarState(Object)} to restore it.  They should also
+     * override {@link #encodeGrammarState(Object)} and
+     * {@link #decodeGrammarState(int[])}.
+     * @return an immutable value with equals and hashCode, or null
+     */
+    protected Object getGrammarState() {
+        return null;
+    }
+
+    /**
+     * Restore the state returned from {@link #getGrammarState()}.
+     * @param state
+     */
+    protected void setGrammarState(Object state) {
+    }
+
+    /**
+     * Write the state returned from {@link #getGrammarState()} as ints.
+     * This writes a null state as no values, other states cannot be written.
+     * @param state
+     * @return the values, or null if the state cannot be written
+     */
+    protected int[] encodeGrammarState(Object state) {
+        return (state == null) ? new int[0] : null;
+    }
+
+    /**
+     * Rebuild a grammar state from the values returned by
+     * {@link #encodeGrammarState(Object)}.
+     * @param values
+     * @return
+     * @throws IllegalArgumentException if the values are not a valid state
+     */
+    protected Object decodeGrammarState(int[] values) {
+        if (values.length != 0) {
+            throw new IllegalArgumentException("Not a grammar state: " + Arrays.toString(values));
+        }
+        return null;
+    }
+
+    /**
+     * Saved state of a DefaultJFlexLexer.  The start of the pending token is
+     * kept relative to the lexer position, so the state does not depend on
+     * where in the document it was saved.
+     */
+    static final class State {
+
+        final int lexicalState;
+        final int pendingStart;
+        final int pendingLength;
+        final Object grammarState;
+
+        State(int lexicalState, int pendingStart, int pendingLength, Object grammarState) {
+            this.lexicalState = lexicalState;
+            this.pendingStart = pendingStart;
+            this.pendingLength = pendingLength;
+            this.grammarState = grammarState;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof State)) {
+                return false;
+            }
+            State s = (State) obj;
+            return lexicalState == s.lexicalState
+                    && pendingStart == s.pendingStart
+                    && pendingLength == s.pendingLength
+                    && (grammarState == null ? s.grammarState == null
+                    : grammarState.equals(s.grammarState));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + lexicalState;
+            hash = 31 * hash + pendingStart;
+            hash = 31 * hash + pendingLength;
+            hash = 31 * hash + (grammarState == null ? 0 : grammarState.hashCode());
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return "State(" + lexicalState + ", " + pendingStart + ", " + pendingLength + ")";
         }
     }
 
@@ -115,6 +305,18 @@ public abstract class DefaultJFlexLexer implements Lexer {
      */
     public abstract void yyreset(Reader reader);
 
+    /**
+     * This will be called to reset the lexer to read the given chars.
+     * Lexers generated with the jsyntaxpane JFlex skeleton scan the array
+     * in place.  This default wraps it in a Reader, which JFlex copies.
+     * @param buffer
+     * @param start
+     * @param length
+     */
+    public void yyreset(char[] buffer, int start, int length) {
+        yyreset(new CharArrayReader(buffer, start, length));
+    }
+
     /**
      * This is called to return the next Token from the Input Reader
      * @return next token, or null if no more tokens.
@@ -149,6 +351,31 @@ public abstract class DefaultJFlexLexer implements Lexer {
      */
     public abstract String yytext();
 
+    /**
+     * Returns the current lexical state.
+     * This method is automatically implemented by JFlex lexers
+     * @return
+     */
+    public abstract int yystate();
+
+    /**
+     * Enters a new lexical state
+     * This method is automatically implemented by JFlex lexers
+     * @param newState
+     */
+    public abstract void yybegin(int newState);
+
+    /**
+     * Returns the number of characters from the beginning of input that the
+     * lexer has examined so far.  This is implemented by the lexers generated
+     * with the jsyntaxpane JFlex skeleton.  Other lexers return
+     * Integer.MAX_VALUE, which disables incremental re-lexing for them.
+     * @return
+     */
+    public int yyextent() {
+        return Integer.MAX_VALUE;
+    }
+
     /**
      * Return the char number from beginning of input stream.
      * This is NOT implemented by JFLex, so the code must be
@@ -15,27 +15,27 @@ package jsyntaxpane.lexers;
 
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.text.Segment;
 import jsyntaxpane.Lexer;
 import jsyntaxpane.Token;
-import jsyntaxpane.TokenComparators;
 import jsyntaxpane.TokenType;
 
 /**
  * This is a "dynamic" Lexer that will use Regex patterns to parse any document,
  * It is NOT as fast as other JFLex generated lexers.
  *
- * The current implementation is about 20x slower than a JFLex lexer
- * (5000 lines in 100ms, vs 5ms for JFlex lexer)
- *
- * This is still usable for a few 100 lines.  500 lines parse in about 10ms.
+ * All the patterns are joined into one alternation, which finds the next
+ * position where any of them matches in a single left-to-right pass.  At
+ * that position each pattern is tried, and the longest match becomes the
+ * token.  Scanning then continues after the token, so tokens never overlap.
  *
  * It also depends on how complex the Regexp and how many of them will actually
  * provide a match.
@@ -43,11 +43,8 @@ import jsyntaxpane.TokenType;
  * Since KEYWORD TokenType is by order less than IDENTIFIER, the higher
  * precedence of KEYWORD token will be used, even if the same regex matches
  * an IDENTIFIER.  This is a neat side-effect of the ordering of the TokenTypes.
- * We now just need to add any non-overlapping matches.  And since longer matches
- * are found first, we will properly match the longer identifiers which start with
- * a keyword.
- *
- * This behaviour can easily be modified by overriding the {@link compareTo} method
+ * And since the longest match wins, we will properly match the longer
+ * identifiers which start with a keyword.
  *
  * @author Ayman Al-Sairafi
  */
@@ -65,35 +62,84 @@ public class SimpleRegexLexer implements Lexer {
 
     @Override
     public void parse(Segment segment, int ofst, List<Token> tokens) {
-        TreeSet<Token> allMatches = new TreeSet<Token>(TokenComparators.LONGEST_FIRST);
-        // add to ourset all the matches by all our regexes
+        Pattern any = getCombined();
+        if (any == null) {
+            return;
+        }
+        Matcher finder = any.matcher(segment);
+        List<Map.Entry<TokenType, Matcher>> matchers =
+                new ArrayList<Map.Entry<TokenType, Matcher>>(patterns.size());
         for (Map.Entry<TokenType, Pattern> e : patterns.entrySet()) {
             Matcher m = e.getValue().matcher(segment);
-            while (m.find()) {
-                Token t = new Token(e.getKey(), m.start() + ofst, m.end() - m.start());
-                allMatches.add(t);
+            // match at a position the same way as when finding in the whole text
+            m.useTransparentBounds(true);
+            m.useAnchoringBounds(false);
+            matchers.add(new AbstractMap.SimpleEntry<TokenType, Matcher>(e.getKey(), m));
+        }
+        int len = segment.length();
+        int pos = 0;
+        while (pos < len && finder.find(pos)) {
+            int start = finder.start();
+            TokenType type = null;
+            int end = start;
+            // patterns are in TokenType order, so on a tie the first one wins
+            for (Map.Entry<TokenType, Matcher> e : matchers) {
+                Matcher m = e.getValue();
+                m.region(start, len);
+                if (m.lookingAt() && m.end() > end) {
+                    type = e.getKey();
+                    end = m.end();
+                }
+            }
+            if (type == null) {
+                // only empty matches here
+                pos = start + 1;
+            } else {
+                tokens.add(new Token(type, start + ofst, end - start));
+                pos = end;
             }
         }
-        int end = -1;
-        for (Token t : allMatches) {
-            if (t.start > end) {
-                tokens.add(t);
-                end = t.end();
+    }
+
+    /**
+     * Join all the patterns into one, which matches wherever one of them
+     * matches.  If a pattern has back references, which would refer to the
+     * wrong groups once joined, the joined pattern matches everywhere, and
+     * all patterns are tried at each position.
+     */
+    private synchronized Pattern getCombined() {
+        if (combined == null && !patterns.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (Pattern p : patterns.values()) {
+                if (BACK_REFERENCE.matcher(p.pattern()).find()) {
+                    combined = Pattern.compile(".", Pattern.DOTALL);
+                    return combined;
+                }
+                if (sb.length() > 0) {
+                    sb.append('|');
+                }
+                sb.append("(?:").append(p.pattern()).append(')');
             }
+            combined = Pattern.compile(sb.toString());
         }
+        return combined;
     }
-    Map<TokenType, Pattern> patterns = new HashMap<TokenType, Pattern>();
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\[1-9]|\\\\k<");
+    Map<TokenType, Pattern> patterns = new EnumMap<TokenType, Pattern>(TokenType.class);
+    private Pattern combined;
 
-    public SimpleRegexLexer putPattern(TokenType type, String regex) {
+    public synchronized SimpleRegexLexer putPattern(TokenType type, String regex) {
         patterns.put(type, Pattern.compile(regex));
+        combined = null;
         return this;
     }
 
-    public SimpleRegexLexer putPatterns(Map props) {
+    public synchronized SimpleRegexLexer putPatterns(Map props) {
         for (Object key : props.keySet()) {
             TokenType t = TokenType.valueOf(key.toString());
             patterns.put(t, Pattern.compile(props.get(key).toString()));
         }
+        combined = null;
         return this;
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane.tokenize;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Map;
+import jsyntaxpane.SyntaxStyle;
+import jsyntaxpane.SyntaxStyles;
+import jsyntaxpane.Token;
+import jsyntaxpane.TokenType;
+
+/**
+ * Writes text with ANSI escape codes for terminals.  Colours are written as
+ * 24 bit colours, except black, which is written as the terminal's default
+ * colour so the text stays readable on dark backgrounds.
+ */
+public class AnsiExporter extends TokenExporter {
+
+	private static final String RESET = "\u001b[0m";
+	private final Map<TokenType, String> codes = new EnumMap<TokenType, String>(TokenType.class);
+	/**
+	 * escape code currently in effect, null for none
+	 */
+	private String current;
+
+	public AnsiExporter(Writer out, SyntaxStyles styles) {
+		super(out, styles);
+		for (TokenType type : TokenType.values()) {
+			codes.put(type, getCode(styles.getStyle(type)));
+		}
+	}
+
+	/**
+	 * Create an exporter using the styles of the given content type
+	 * @param out
+	 * @param contentType
+	 */
+	public AnsiExporter(Writer out, String contentType) {
+		this(out, getStyles(contentType));
+	}
+
+	/**
+	 * Get the escape code for the style
+	 * @param style
+	 * @return the code, or null if the style is the terminal's default
+	 */
+	private static String getCode(SyntaxStyle style) {
+		StringBuilder sb = new StringBuilder();
+		if (style.isBold()) {
+			sb.append(";1");
+		}
+		if (style.isItalic()) {
+			sb.append(";3");
+		}
+		if ((style.getFontStyle() & 0x8) != 0) {
+			sb.append(";4");
+		}
+		Color c = style.getColor();
+		if (c != null && (c.getRGB() & 0xffffff) != 0) {
+			sb.append(";38;2;").append(c.getRed()).append(';').append(c.getGreen())
+				.append(';').append(c.getBlue());
+		}
+		if ((style.getFontStyle() & 0x10) != 0) {
+			sb.append(";48;2;238;238;238");
+		}
+		return (sb.length() == 0) ? null : "\u001b[0" + sb + "m";
+	}
+
+	@Override
+	protected void end() throws IOException {
+		setCode(null);
+	}
+
+	@Override
+	public void text(int start, CharSequence text) throws IOException {
+		setCode(null);
+		write(text);
+	}
+
+	@Override
+	public void token(Token token, CharSequence text) throws IOException {
+		setCode(codes.get(token.type));
+		write(text);
+	}
+
+	private void setCode(String code) throws IOException {
+		if (code == null ? current != null : !code.equals(current)) {
+			write(code == null ? RESET : code);
+			current = code;
+		}
+	}
+}
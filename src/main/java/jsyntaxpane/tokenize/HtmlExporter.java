@@ -0,0 +1,142 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane.tokenize;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import jsyntaxpane.SyntaxStyle;
+import jsyntaxpane.SyntaxStyles;
+import jsyntaxpane.Token;
+import jsyntaxpane.TokenType;
+
+/**
+ * Writes text as an HTML pre element, with each token in a span whose CSS
+ * class is the lower case name of its TokenType.  The matching style sheet
+ * is written by {@link #writeStyleSheet()}.
+ *
+ * <pre>
+ * HtmlExporter html = new HtmlExporter(out, "text/java");
+ * html.writeStyleSheet();
+ * html.export("text/java", reader);
+ * </pre>
+ */
+public class HtmlExporter extends TokenExporter {
+
+	/**
+	 * Default CSS class of the pre element
+	 */
+	public static final String CSS_CLASS = "jsyntaxpane";
+	private final String cssClass;
+
+	public HtmlExporter(Writer out, SyntaxStyles styles, String cssClass) {
+		super(out, styles);
+		this.cssClass = cssClass;
+	}
+
+	/**
+	 * Create an exporter using the styles of the given content type
+	 * @param out
+	 * @param contentType
+	 */
+	public HtmlExporter(Writer out, String contentType) {
+		this(out, getStyles(contentType), CSS_CLASS);
+	}
+
+	/**
+	 * Write the CSS rules for the styles of all TokenTypes
+	 * @throws IOException
+	 */
+	public void writeStyleSheet() throws IOException {
+		for (TokenType type : TokenType.values()) {
+			SyntaxStyle style = styles.getStyle(type);
+			write('.');
+			write(cssClass);
+			write(" .");
+			write(getCssClass(type));
+			write(" { color: #");
+			write(String.format("%06x", style.getColor().getRGB() & 0xffffff));
+			write(';');
+			if (style.isBold()) {
+				write(" font-weight: bold;");
+			}
+			if (style.isItalic()) {
+				write(" font-style: italic;");
+			}
+			// the decorations SyntaxStyle.drawText adds
+			if ((style.getFontStyle() & 0x10) != 0) {
+				write(" background-color: #eeeeee;");
+			}
+			if ((style.getFontStyle() & 0x8) != 0) {
+				write(" outline: 1px solid red;");
+			}
+			write(" }\n");
+		}
+		flush();
+	}
+
+	/**
+	 * The CSS class used for tokens of the given type
+	 * @param type
+	 * @return
+	 */
+	public static String getCssClass(TokenType type) {
+		return type.name().toLowerCase(Locale.ENGLISH);
+	}
+
+	@Override
+	protected void begin() throws IOException {
+		write("<pre class=\"");
+		write(cssClass);
+		write("\">");
+	}
+
+	@Override
+	protected void end() throws IOException {
+		write("</pre>\n");
+	}
+
+	@Override
+	public void text(int start, CharSequence text) throws IOException {
+		writeEscaped(text);
+	}
+
+	@Override
+	public void token(Token token, CharSequence text) throws IOException {
+		write("<span class=\"");
+		write(getCssClass(token.type));
+		write("\">");
+		writeEscaped(text);
+		write("</span>");
+	}
+
+	private void writeEscaped(CharSequence text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '&':
+					write("&amp;");
+					break;
+				case '<':
+					write("&lt;");
+					break;
+				case '>':
+					write("&gt;");
+					break;
+				default:
+					write(c);
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane.tokenize;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import jsyntaxpane.DefaultSyntaxKit;
+import jsyntaxpane.SyntaxStyles;
+import jsyntaxpane.util.Configuration;
+import jsyntaxpane.util.JarServiceProvider;
+
+/**
+ * Writes the tokens of a {@link TokenStream} with their styles to a Writer.
+ * Sub classes decide how the styles are written.
+ *
+ * The styles are the ones the kit for the content type would use, that is
+ * the Style.* entries of the kit's configuration, read without creating the
+ * kit, so exporting works in headless JVMs.
+ *
+ * The text is written as it is read, through a small buffer, so memory use
+ * does not depend on the size of the text.  An exporter writes one text;
+ * use one exporter per thread to export many texts at the same time.
+ */
+public abstract class TokenExporter implements TokenHandler {
+
+	private static final Map<String, SyntaxStyles> STYLES = new HashMap<String, SyntaxStyles>();
+	protected final Writer out;
+	protected final SyntaxStyles styles;
+	private final char[] buffer = new char[1024];
+	private int buffered;
+
+	protected TokenExporter(Writer out, SyntaxStyles styles) {
+		this.out = out;
+		this.styles = styles;
+	}
+
+	/**
+	 * Write all the text of the stream, and close it.  The Writer is flushed
+	 * but not closed.
+	 * @param stream
+	 * @throws IOException
+	 */
+	public void export(TokenStream stream) throws IOException {
+		begin();
+		stream.tokenize(this);
+		end();
+		flush();
+	}
+
+	/**
+	 * Write all the text of the reader, lexed for the given content type
+	 * @param contentType
+	 * @param reader
+	 * @throws IOException
+	 */
+	public void export(String contentType, Reader reader) throws IOException {
+		export(TokenStream.create(contentType, reader));
+	}
+
+	/**
+	 * Called before the first token
+	 * @throws IOException
+	 */
+	protected void begin() throws IOException {
+	}
+
+	/**
+	 * Called after the last token
+	 * @throws IOException
+	 */
+	protected void end() throws IOException {
+	}
+
+	/**
+	 * Write a char to the output
+	 * @param c
+	 * @throws IOException
+	 */
+	protected void write(char c) throws IOException {
+		if (buffered == buffer.length) {
+			out.write(buffer, 0, buffered);
+			buffered = 0;
+		}
+		buffer[buffered++] = c;
+	}
+
+	/**
+	 * Write the chars to the output
+	 * @param s
+	 * @throws IOException
+	 */
+	protected void write(CharSequence s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			write(s.charAt(i));
+		}
+	}
+
+	/**
+	 * Write the buffered chars, and flush the Writer
+	 * @throws IOException
+	 */
+	protected void flush() throws IOException {
+		out.write(buffer, 0, buffered);
+		buffered = 0;
+		out.flush();
+	}
+
+	/**
+	 * Get the styles the kit registered for the given content type uses.
+	 * The kit class is loaded but not initialized.
+	 * @param contentType
+	 * @return
+	 * @throws IllegalArgumentException if no kit is registered for the type
+	 */
+	public static SyntaxStyles getStyles(String contentType) {
+		synchronized (STYLES) {
+			SyntaxStyles ss = STYLES.get(contentType);
+			if (ss == null) {
+				ss = SyntaxStyles.read(getKitConfig(contentType));
+				STYLES.put(contentType, ss);
+			}
+			return ss;
+		}
+	}
+
+	private static Configuration getKitConfig(String contentType) {
+		String kit = TokenStream.getKitClassName(contentType);
+		if (kit == null) {
+			throw new IllegalArgumentException("No kit registered for content type: " + contentType);
+		}
+		List<Class<?>> kits = new ArrayList<Class<?>>();
+		try {
+			Class<?> c = Class.forName(kit, false, TokenExporter.class.getClassLoader());
+			for (; c != null && DefaultSyntaxKit.class.isAssignableFrom(c); c = c.getSuperclass()) {
+				kits.add(0, c);
+			}
+		} catch (ClassNotFoundException ex) {
+			throw new IllegalArgumentException("Cannot find kit: " + kit, ex);
+		}
+		// the same configuration DefaultSyntaxKit.getConfig() builds
+		Configuration config = null;
+		for (Class<?> c : kits) {
+			config = new Configuration(c, config);
+			Properties p = JarServiceProvider.readProperties(
+				c.getName().replace(".", "/") + "/config", Locale.getDefault());
+			config.putAll(p);
+		}
+		return config;
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane.tokenize;
+
+import java.io.IOException;
+import jsyntaxpane.Token;
+
+/**
+ * Receives the text of a {@link TokenStream}, in order, split into tokens
+ * and the plain text between them.
+ *
+ * The CharSequences passed are only valid during the call.
+ */
+public interface TokenHandler {
+
+	/**
+	 * Called for text that is not part of any token, such as white space
+	 * @param start position of the text in the stream
+	 * @param text
+	 * @throws IOException
+	 */
+	void text(int start, CharSequence text) throws IOException;
+
+	/**
+	 * Called for each token
+	 * @param token
+	 * @param text the text of the token
+	 * @throws IOException
+	 */
+	void token(Token token, CharSequence text) throws IOException;
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane.tokenize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import jsyntaxpane.DefaultSyntaxKit;
+import jsyntaxpane.Lexer;
+import jsyntaxpane.LexerPool;
+import jsyntaxpane.Token;
+import jsyntaxpane.lexers.DefaultJFlexLexer;
+import jsyntaxpane.lexers.EmptyLexer;
+import jsyntaxpane.util.JarServiceProvider;
+
+/**
+ * Lexes text from a Reader without a SyntaxDocument or an EditorKit, so it
+ * can be used in headless JVMs, for example to highlight code on a server.
+ *
+ * The lexer for a content type is found from the kit registered for it in
+ * kitsfortypes.properties: the kit jsyntaxpane.syntaxkits.JavaSyntaxKit
+ * uses jsyntaxpane.lexers.JavaLexer.  For kits that do not follow this
+ * naming, the kit is created and asked for its lexer, which needs a JVM
+ * that is not headless.  In headless JVMs such kits need their lexer
+ * registered with {@link #registerLexer(String, Class)}.
+ *
+ * Tokens can be read one at a time, as an Iterator, or all passed to a
+ * {@link TokenHandler} together with their text.  Only the text of the
+ * current token and the lexer's read ahead buffer are kept in memory, so
+ * texts of any length can be streamed.
+ *
+ * Instances are not thread safe.  Close the stream when done with it, so the
+ * lexer can be reused.
+ */
+public class TokenStream implements Iterator<Token>, Closeable {
+
+	/**
+	 * Text before this many chars behind the current token is dropped
+	 */
+	private static final int MIN_DISCARD = 8192;
+	private static final Map<String, Class<? extends DefaultJFlexLexer>> LEXERS =
+		new HashMap<String, Class<? extends DefaultJFlexLexer>>();
+	/**
+	 * The kit of plain text, whose documents have no tokens
+	 */
+	private static final String PLAIN_KIT = "jsyntaxpane.syntaxkits.PlainSyntaxKit";
+	private static Properties kitsForTypes;
+	private final Recorder reader;
+	private final LexerPool pool;
+	private DefaultJFlexLexer lexer;
+	private Token next;
+	private boolean done;
+	/**
+	 * end of the last token returned
+	 */
+	private int end;
+
+	/**
+	 * Create a stream of the tokens the given lexer finds in the text
+	 * @param lexer the lexer to use, or null to return no tokens
+	 * @param reader
+	 */
+	public TokenStream(DefaultJFlexLexer lexer, Reader reader) {
+		this(lexer, null, reader);
+	}
+
+	private TokenStream(DefaultJFlexLexer lexer, LexerPool pool, Reader reader) {
+		this.reader = new Recorder(reader);
+		this.pool = pool;
+		this.lexer = lexer;
+		if (lexer == null) {
+			done = true;
+		} else {
+			lexer.start(this.reader);
+		}
+	}
+
+	/**
+	 * Create a stream of the tokens of the given text
+	 * @param contentType a content type in kitsfortypes.properties, or one
+	 * registered with {@link #registerLexer(String, Class)}
+	 * @param reader
+	 * @return
+	 * @throws IllegalArgumentException if there is no lexer for the type
+	 */
+	public static TokenStream create(String contentType, Reader reader) {
+		Class<? extends DefaultJFlexLexer> type = getLexerClass(contentType);
+		if (type == null) {
+			return new TokenStream(null, reader);
+		}
+		LexerPool pool = LexerPool.forClass(type);
+		return new TokenStream((DefaultJFlexLexer) pool.borrow(), pool, reader);
+	}
+
+	/**
+	 * Create a stream of the tokens of the given text
+	 * @param contentType
+	 * @param text
+	 * @return
+	 * @throws IllegalArgumentException if there is no lexer for the type
+	 */
+	public static TokenStream create(String contentType, CharSequence text) {
+		return create(contentType, new CharSequenceReader(text));
+	}
+
+	/**
+	 * Use the given lexer class for the given content type, instead of the
+	 * one found from kitsfortypes.properties
+	 * @param contentType
+	 * @param lexerClass a class with a public no-argument constructor
+	 */
+	public static void registerLexer(String contentType,
+		Class<? extends DefaultJFlexLexer> lexerClass) {
+		if (!LexerPool.canCreate(lexerClass)) {
+			throw new IllegalArgumentException("Cannot register lexer: " + lexerClass.getName() +
+				". Ensure it has Default Constructor.");
+		}
+		synchronized (LEXERS) {
+			LEXERS.put(contentType, lexerClass);
+		}
+	}
+
+	/**
+	 * Check if there is a lexer for the given content type
+	 * @param contentType
+	 * @return
+	 */
+	public static boolean isSupported(String contentType) {
+		try {
+			getLexerClass(contentType);
+			return true;
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Find the lexer class for the given content type
+	 * @param contentType
+	 * @return the lexer class, or null if the type is plain text
+	 * @throws IllegalArgumentException if the content type is not known
+	 */
+	public static Class<? extends DefaultJFlexLexer> getLexerClass(String contentType) {
+		synchronized (LEXERS) {
+			if (LEXERS.containsKey(contentType)) {
+				return LEXERS.get(contentType);
+			}
+			String kit = getKitClassName(contentType);
+			if (kit == null) {
+				throw new IllegalArgumentException("No kit registered for content type: " + contentType);
+			}
+			Class<? extends DefaultJFlexLexer> type;
+			if (kit.equals(PLAIN_KIT)) {
+				type = null;
+			} else {
+				type = findLexerClass(kit);
+				if (type == null) {
+					type = kitLexerClass(contentType, kit);
+				}
+			}
+			if (type != null && !LexerPool.canCreate(type)) {
+				throw new IllegalArgumentException("Cannot create lexer: " + type.getName());
+			}
+			LEXERS.put(contentType, type);
+			return type;
+		}
+	}
+
+	/**
+	 * Find the lexer named after the given kit class
+	 * @param kit
+	 * @return the lexer class, or null if there is none
+	 */
+	private static Class<? extends DefaultJFlexLexer> findLexerClass(String kit) {
+		String name = kit.substring(kit.lastIndexOf('.') + 1);
+		if (name.endsWith("SyntaxKit")) {
+			name = name.substring(0, name.length() - "SyntaxKit".length());
+		}
+		try {
+			Class<?> c = Class.forName("jsyntaxpane.lexers." + name + "Lexer");
+			if (DefaultJFlexLexer.class.isAssignableFrom(c)) {
+				return c.asSubclass(DefaultJFlexLexer.class);
+			}
+		} catch (ClassNotFoundException ex) {
+			// not named after the kit
+		}
+		return null;
+	}
+
+	/**
+	 * Create the given kit and get the class of its lexer
+	 * @param contentType
+	 * @param kit
+	 * @return the lexer class, or null if the kit's lexer finds no tokens
+	 * @throws IllegalArgumentException if the kit or its lexer cannot be used
+	 */
+	private static Class<? extends DefaultJFlexLexer> kitLexerClass(String contentType, String kit) {
+		Lexer lexer;
+		try {
+			Object o = Class.forName(kit).newInstance();
+			if (!(o instanceof DefaultSyntaxKit)) {
+				throw new IllegalArgumentException("Kit " + kit + " for content type " +
+					contentType + " is not a DefaultSyntaxKit");
+			}
+			lexer = ((DefaultSyntaxKit) o).getLexer();
+		} catch (IllegalArgumentException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("Cannot create kit " + kit + " for content type " +
+				contentType + ". Register its lexer with TokenStream.registerLexer", ex);
+		} catch (LinkageError ex) {
+			// kits cannot be initialized in headless JVMs
+			throw new IllegalArgumentException("Cannot create kit " + kit + " for content type " +
+				contentType + ". Register its lexer with TokenStream.registerLexer", ex);
+		}
+		if (lexer instanceof EmptyLexer) {
+			return null;
+		}
+		if (!(lexer instanceof DefaultJFlexLexer)) {
+			throw new IllegalArgumentException("Kit " + kit + " for content type " + contentType +
+				" has no JFlex lexer. Register one with TokenStream.registerLexer");
+		}
+		return ((DefaultJFlexLexer) lexer).getClass();
+	}
+
+	/**
+	 * Get the name of the kit class registered in kitsfortypes.properties
+	 * for the given content type
+	 * @param contentType
+	 * @return class name, or null if none is registered
+	 */
+	static synchronized String getKitClassName(String contentType) {
+		if (kitsForTypes == null) {
+			kitsForTypes = JarServiceProvider.readProperties("jsyntaxpane/kitsfortypes");
+		}
+		return kitsForTypes.getProperty(contentType);
+	}
+
+	@Override
+	public boolean hasNext() {
+		try {
+			return advance();
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	@Override
+	public Token next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Token t = next;
+		next = null;
+		reader.discard(end);
+		end = t.end();
+		return t;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Get the text of the last token returned from {@link #next()}, or of
+	 * the plain text before it.
+	 * @param start
+	 * @param end
+	 * @return
+	 * @throws IndexOutOfBoundsException if the text is no longer available
+	 */
+	public CharSequence getText(int start, int end) {
+		return reader.getText(start, end);
+	}
+
+	/**
+	 * Pass the rest of the text to the handler, and close the stream.
+	 * Text before the first remaining token is not passed.
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void tokenize(TokenHandler handler) throws IOException {
+		try {
+			int pos = end;
+			while (advance()) {
+				Token t = next();
+				if (t.start > pos) {
+					handler.text(pos, reader.getText(pos, t.start));
+				}
+				handler.token(t, reader.getText(Math.max(t.start, pos), t.end()));
+				pos = Math.max(pos, t.end());
+			}
+			// the text after the last token
+			char[] buf = new char[4096];
+			for (int n = 0; n >= 0; n = reader.read(buf, 0, buf.length)) {
+				if (reader.getPosition() > pos) {
+					handler.text(pos, reader.getText(pos, reader.getPosition()));
+					pos = reader.getPosition();
+				}
+				reader.discard(pos);
+			}
+		} finally {
+			close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		release();
+		reader.close();
+	}
+
+	private boolean advance() throws IOException {
+		if (next == null && !done) {
+			next = lexer.yylex();
+			if (next == null) {
+				done = true;
+				release();
+			}
+		}
+		return next != null;
+	}
+
+	private void release() {
+		if (lexer != null) {
+			done = true;
+			if (pool != null) {
+				lexer.start(new CharSequenceReader(""));
+				pool.release(lexer);
+			}
+			lexer = null;
+		}
+	}
+
+	/**
+	 * Reader that keeps the text read through it, until it is discarded
+	 */
+	private static class Recorder extends Reader {
+
+		private final Reader in;
+		private final StringBuilder window = new StringBuilder();
+		/**
+		 * position in the text of the first char of window
+		 */
+		private int base;
+
+		Recorder(Reader in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			int n = in.read(cbuf, off, len);
+			if (n > 0) {
+				window.append(cbuf, off, n);
+			}
+			return n;
+		}
+
+		int getPosition() {
+			return base + window.length();
+		}
+
+		CharSequence getText(int start, int end) {
+			if (start < base || end > getPosition() || start > end) {
+				throw new IndexOutOfBoundsException("Text " + start + "-" + end +
+					" not available in " + base + "-" + getPosition());
+			}
+			return CharBuffer.wrap(window, start - base, end - base);
+		}
+
+		/**
+		 * Drop the text before pos, when it is worth copying the rest
+		 */
+		void discard(int pos) {
+			int n = pos - base;
+			if (n >= MIN_DISCARD && n >= window.length() / 2) {
+				window.delete(0, n);
+				base = pos;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	private static class CharSequenceReader extends Reader {
+
+		private final CharSequence text;
+		private int pos;
+
+		CharSequenceReader(CharSequence text) {
+			this.text = text;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) {
+			if (pos >= text.length()) {
+				return -1;
+			}
+			int n = Math.min(len, text.length() - pos);
+			for (int i = 0; i < n; i++) {
+				cbuf[off + i] = text.charAt(pos++);
+			}
+			return n;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
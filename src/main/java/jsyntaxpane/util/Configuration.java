@@ -80,6 +80,8 @@ public class Configuration implements Map<String, String> {
      * Configuration (usually ClassName) with "." replaced by "/", and then
      * converted to all lowercase</li>
      * <li><code>class_simpleName</code></li> is replaced by class.SimpleName
+     * Keys with no value here are looked up in the System properties, so
+     * <code>${user.home}</code> can be used.
      * @param key
      * @return
      */
@@ -104,6 +106,9 @@ public class Configuration implements Map<String, String> {
                     p_value = clazz.getSimpleName();
                 } else {
                     p_value = getString(p_key);
+                    if (p_value == null && System.getProperty(p_key) != null) {
+                        p_value = Matcher.quoteReplacement(System.getProperty(p_key));
+                    }
                     if (p_value == null) {
                         Logger.getLogger(this.getClass().getName()).warning(
                                 "no value for ${" + p_key +
@@ -0,0 +1,135 @@
+package jsyntaxpane;
+
+import jsyntaxpane.util.Configuration;
+import org.junit.Test;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.PlainView;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static jsyntaxpane.TextImages.assertSamePixels;
+import static jsyntaxpane.TextImages.newGraphics;
+import static jsyntaxpane.TextImages.newImage;
+import static jsyntaxpane.TextImages.newPane;
+import static jsyntaxpane.TextImages.newView;
+import static jsyntaxpane.TextImages.segment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FixedPitchTest {
+
+    private static final String TEXT = "int\tx = 1;\t// ok";
+
+    @Test
+    public void columnsMatchMeasuredText() {
+        BufferedImage measured = newImage(300, 30);
+        BufferedImage counted = newImage(300, 30);
+        Graphics2D g = newGraphics(measured);
+        FontMetrics fm = g.getFontMetrics();
+        int pitch = FixedPitch.pitchOf(g, g.getFont());
+        assertTrue(pitch > 0);
+        TabExpander e = tabs(pitch);
+        g.setColor(Color.WHITE);
+        int x1 = Utilities.drawTabbedText(segment(TEXT), 5, 20, g, e, 0);
+        g.dispose();
+        g = newGraphics(counted);
+        g.setColor(Color.WHITE);
+        int x2 = FixedPitch.draw(segment(TEXT), 5, 20, g, fm, pitch, e, 0);
+        g.dispose();
+        assertEquals(x1, x2);
+        assertEquals(x1, FixedPitch.advance(segment(TEXT), 5, fm, pitch, e, 0));
+        assertSamePixels("columns", measured, counted);
+        for (int i = 0; i <= TEXT.length(); i++) {
+            Segment s = new Segment(TEXT.toCharArray(), 0, i);
+            int x = Utilities.getTabbedTextWidth(s, fm, 5, e, 0) + 5;
+            assertEquals(x, FixedPitch.advance(s, 5, fm, pitch, e, 0));
+            assertEquals(i, FixedPitch.offset(segment(TEXT), 5, x, fm, pitch, e, 0));
+        }
+    }
+
+    @Test
+    public void otherCharsAreMeasured() {
+        String text = "a\uD83D\uDE00b\t\u4e2d\u6587 = \"\u00e9t\u00e9\";";
+        BufferedImage measured = newImage(300, 30);
+        BufferedImage counted = newImage(300, 30);
+        Graphics2D g = newGraphics(measured);
+        FontMetrics fm = g.getFontMetrics();
+        int pitch = FixedPitch.pitchOf(g, g.getFont());
+        TabExpander e = tabs(pitch);
+        g.setColor(Color.WHITE);
+        int x1 = Utilities.drawTabbedText(segment(text), 5, 20, g, e, 0);
+        g.dispose();
+        g = newGraphics(counted);
+        g.setColor(Color.WHITE);
+        assertEquals(x1, FixedPitch.draw(segment(text), 5, 20, g, fm, pitch, e, 0));
+        g.dispose();
+        assertSamePixels("other chars", measured, counted);
+        assertFalse(FixedPitch.isColumns(segment(text)));
+        int last = 5;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == 2) {
+                // within the surrogate pair
+                continue;
+            }
+            Segment s = new Segment(text.toCharArray(), 0, i);
+            int x = Utilities.getTabbedTextWidth(s, fm, 5, e, 0) + 5;
+            assertEquals("advance to " + i, x, FixedPitch.advance(s, 5, fm, pitch, e, 0));
+            if (x > last) {
+                assertEquals("offset at " + x, i, FixedPitch.offset(segment(text), 5, x, fm, pitch, e, 0));
+            }
+            last = x;
+        }
+        // the surrogate pair is one glyph, which is never split
+        for (int x = 5; x < 5 + fm.charsWidth(text.toCharArray(), 0, 3); x++) {
+            assertTrue(FixedPitch.offset(segment(text), 5, x, fm, pitch, e, 0) != 2);
+        }
+    }
+
+    @Test
+    public void viewPlacesTheCaretLikePlainView() throws Exception {
+        // tabs count from the start of the lines, which is not at x 0
+        Rectangle alloc = new Rectangle(7, 3, 400, 100);
+        String text = "\tint\tx;\n  \u4e2d\t\uD83D\uDE00 = 1;\t// \u00e9\n";
+        JEditorPane pane = newPane(null, text);
+        SyntaxView view = newView(pane, new Configuration(SyntaxView.class));
+        Graphics2D g = newGraphics(newImage(400, 100));
+        g.setFont(pane.getFont());
+        g.setClip(0, 0, 400, 100);
+        view.paint(g, alloc);
+        g.dispose();
+        PlainView plain = new PlainView(pane.getDocument().getDefaultRootElement());
+        plain.setParent(pane.getUI().getRootView(pane));
+        Position.Bias[] bias = new Position.Bias[1];
+        for (int pos = 0; pos < text.length(); pos++) {
+            if (Character.isLowSurrogate(text.charAt(pos))) {
+                continue;
+            }
+            Rectangle r = view.modelToView(pos, alloc, Position.Bias.Forward).getBounds();
+            Rectangle expected = plain.modelToView(pos, alloc, Position.Bias.Forward).getBounds();
+            assertEquals("x of " + pos, expected.x, r.x);
+            assertEquals("y of " + pos, expected.y, r.y);
+            if (text.charAt(pos) != '\n') {
+                assertEquals("offset at " + r.x, pos, view.viewToModel(r.x, r.y, alloc, bias));
+            }
+        }
+    }
+
+    private TabExpander tabs(final int pitch) {
+        return new TabExpander() {
+
+            public float nextTabStop(float x, int tabOffset) {
+                int size = 4 * pitch;
+                return 5 + ((int) x - 5) / size * size + size;
+            }
+        };
+    }
+}
@@ -0,0 +1,38 @@
+package jsyntaxpane;
+
+import org.junit.Test;
+
+import javax.swing.text.Segment;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineCheckpointsTest {
+
+    @Test
+    public void checkpointsAreAddedEverySpacingChars() {
+        int spacing = LineCheckpoints.SPACING;
+        char[] text = new char[3 * spacing + 10];
+        Arrays.fill(text, 'x');
+        LineCheckpoints cp = new LineCheckpoints(100, 5);
+        // the text is measured in tokens that do not end at checkpoints
+        int x = 5;
+        int offset = 100;
+        for (int from = 0; from < text.length; from += 700) {
+            int count = Math.min(700, text.length - from);
+            x = cp.measure(new Segment(text, from, count), x, null, 7, null, offset);
+            offset += count;
+        }
+        assertEquals(5 + 7 * text.length, x);
+        assertEquals(4, cp.size());
+        for (int i = 0; i < cp.size(); i++) {
+            assertEquals(100 + i * spacing, cp.getOffset(i));
+            assertEquals(5 + i * spacing * 7, cp.getX(i));
+        }
+        assertEquals(0, cp.indexOfX(0));
+        assertEquals(1, cp.indexOfX(5 + spacing * 7));
+        assertEquals(1, cp.indexOfX(5 + 2 * spacing * 7 - 1));
+        assertEquals(3, cp.indexOfX(Integer.MAX_VALUE));
+        assertEquals(2, cp.indexOfOffset(100 + 2 * spacing + 5));
+    }
+}
@@ -0,0 +1,121 @@
+package jsyntaxpane;
+
+import jsyntaxpane.lexers.JavaLexer;
+import jsyntaxpane.util.Configuration;
+import org.junit.Test;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static jsyntaxpane.TextImages.assertSamePixels;
+import static jsyntaxpane.TextImages.newGraphics;
+import static jsyntaxpane.TextImages.newImage;
+import static jsyntaxpane.TextImages.newPane;
+import static jsyntaxpane.TextImages.newView;
+import static jsyntaxpane.TextImages.paint;
+import static jsyntaxpane.TextImages.viewOf;
+import static jsyntaxpane.TextImages.segment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LineGlyphsTest {
+
+    private static final String[] TEXT = {"int\tx", " = 1;\t\t", "// ok\n"};
+
+    @Test
+    public void glyphsDrawLikeTheText() {
+        SyntaxStyle[] styles = {
+            new SyntaxStyle(new Color(0x3333ee), Font.BOLD),
+            new SyntaxStyle(Color.WHITE, Font.PLAIN),
+            new SyntaxStyle(new Color(0x339933), Font.ITALIC)
+        };
+        BufferedImage drawn = newImage(400, 30);
+        BufferedImage shaped = newImage(400, 30);
+        Graphics2D g = newGraphics(drawn);
+        FontMetrics[] fms = new FontMetrics[styles.length];
+        int x1 = 5;
+        int offset = 0;
+        for (int i = 0; i < TEXT.length; i++) {
+            fms[i] = g.getFontMetrics(g.getFont().deriveFont(styles[i].getFontStyle()));
+            g.setFont(fms[i].getFont());
+            g.setColor(styles[i].getColor());
+            TabExpander e = tabs(fms[i]);
+            x1 = Utilities.drawTabbedText(segment(TEXT[i]), x1, 20, g, e, offset);
+            offset += TEXT[i].length();
+        }
+        g.dispose();
+        g = newGraphics(shaped);
+        LineGlyphs lg = new LineGlyphs(g.getFontRenderContext(), 5);
+        int x2 = 5;
+        offset = 0;
+        for (int i = 0; i < TEXT.length; i++) {
+            x2 = lg.add(segment(TEXT[i]), x2, styles[i], fms[i], tabs(fms[i]), offset);
+            offset += TEXT[i].length();
+        }
+        assertTrue(lg.isComplete());
+        assertTrue(lg.isValid(g.getFontRenderContext(), 5));
+        assertFalse(lg.isValid(g.getFontRenderContext(), 6));
+        assertEquals(x1, x2);
+        assertEquals(x1, lg.draw(g, 20));
+        g.dispose();
+        assertSamePixels("glyphs", drawn, shaped);
+    }
+
+    @Test
+    public void shapingStopsAtDecoratedText() {
+        BufferedImage image = newImage(400, 30);
+        Graphics2D g = newGraphics(image);
+        LineGlyphs lg = new LineGlyphs(g.getFontRenderContext(), 0);
+        SyntaxStyle plain = new SyntaxStyle(Color.WHITE, Font.PLAIN);
+        SyntaxStyle decorated = new SyntaxStyle(Color.RED, Font.PLAIN | 0x8);
+        FontMetrics fm = g.getFontMetrics();
+        int x = lg.add(segment(TEXT[0]), 0, plain, fm, null, 0);
+        assertEquals(x, lg.add(segment(TEXT[1]), x, decorated, fm, null, 0));
+        assertEquals(x, lg.add(segment(TEXT[2]), x, plain, fm, null, 0));
+        assertFalse(lg.isComplete());
+        lg.draw(g, 20);
+        g.dispose();
+        assertSamePixels("no glyphs", newImage(400, 30), image);
+    }
+
+    @Test
+    public void cachedLinesDrawLikeTheView() throws Exception {
+        Configuration config = new Configuration(SyntaxView.class);
+        config.put("Style.COMMENT", "0x339933, 8");
+        Configuration cached = new Configuration(SyntaxView.class, config);
+        cached.put(SyntaxView.PROPERTY_GLYPH_CACHE, "true");
+        JEditorPane pane = newPane(new JavaLexer(), "int\tx = 1;\n/* decorated */ int y;\n", cached);
+        SyntaxView view = viewOf(pane);
+        for (int i = 0; i < 2; i++) {
+            assertSamePixels("paint " + i, paint(newView(pane, config)), paint(view));
+        }
+        pane.getDocument().insertString(0, "long ", null);
+        assertSamePixels("edit", paint(newView(pane, config)), paint(view));
+        pane.getDocument().insertString(0, "\n", null);
+        assertSamePixels("new line", paint(newView(pane, config)), paint(view));
+        pane.setFont(TextImages.FONT.deriveFont(20f));
+        assertSamePixels("new font", paint(newView(pane, config)), paint(viewOf(pane)));
+        // a view that is not told of the change finds the new font when painting
+        view = newView(pane, cached);
+        paint(view);
+        pane.setFont(TextImages.FONT);
+        assertSamePixels("font when painting", paint(newView(pane, config)), paint(view));
+    }
+
+    private TabExpander tabs(final FontMetrics fm) {
+        return new TabExpander() {
+
+            public float nextTabStop(float x, int tabOffset) {
+                int size = 4 * fm.charWidth(' ');
+                return ((int) x / size + 1) * size;
+            }
+        };
+    }
+}
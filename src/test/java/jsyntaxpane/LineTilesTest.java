@@ -0,0 +1,102 @@
+package jsyntaxpane;
+
+import jsyntaxpane.lexers.JavaLexer;
+import jsyntaxpane.util.Configuration;
+import org.junit.Test;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.Document;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+
+import static jsyntaxpane.TextImages.assertSamePixels;
+import static jsyntaxpane.TextImages.newPane;
+import static jsyntaxpane.TextImages.newView;
+import static jsyntaxpane.TextImages.paint;
+import static jsyntaxpane.TextImages.viewOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LineTilesTest {
+
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+    @Test
+    public void leastRecentlyUsedTilesAreDropped() {
+        // room for two tiles of 100 x 50
+        LineTiles tiles = new LineTiles(2 * 4 * 100 * 50);
+        BufferedImage first = newImage();
+        tiles.put(0, first, FONT, 5, 15);
+        tiles.put(1, newImage(), FONT, 5, 15);
+        assertSame(first, tiles.get(0, FONT, 5, 100, 15));
+        tiles.put(2, newImage(), FONT, 5, 15);
+        assertNull(tiles.get(1, FONT, 5, 100, 15));
+        assertNotNull(tiles.get(0, FONT, 5, 100, 15));
+        assertNotNull(tiles.get(2, FONT, 5, 100, 15));
+    }
+
+    @Test
+    public void changedTilesAreDropped() {
+        LineTiles tiles = new LineTiles(1 << 20);
+        for (int i = 0; i < 4; i++) {
+            tiles.put(i, newImage(), FONT, 5, 15);
+        }
+        assertNull(tiles.get(0, FONT.deriveFont(14f), 5, 100, 15));
+        assertNull(tiles.get(0, FONT, 5, 100, 15));
+        assertNull(tiles.get(1, FONT, 5, 120, 15));
+        tiles.put(1, newImage(), FONT, 5, 15);
+        tiles.invalidateFrom(2 * LineTiles.TILE_LINES + 1);
+        assertNotNull(tiles.get(1, FONT, 5, 100, 15));
+        assertNull(tiles.get(2, FONT, 5, 100, 15));
+        assertNull(tiles.get(3, FONT, 5, 100, 15));
+    }
+
+    @Test
+    public void editedLinesAreDirty() {
+        LineTiles tiles = new LineTiles(1 << 20);
+        BufferedImage image = newImage();
+        tiles.put(0, image, FONT, 5, 15);
+        tiles.put(1, newImage(), FONT, 5, 15);
+        assertEquals(0, tiles.getDirtyLines(0));
+        tiles.invalidate(3, 3);
+        assertSame(image, tiles.get(0, FONT, 5, 100, 15));
+        assertEquals(1 << 3, tiles.getDirtyLines(0));
+        assertEquals(0, tiles.getDirtyLines(1));
+        tiles.invalidate(LineTiles.TILE_LINES - 2, LineTiles.TILE_LINES);
+        assertEquals(1 << 3 | 3 << (LineTiles.TILE_LINES - 2), tiles.getDirtyLines(0));
+        assertEquals(1, tiles.getDirtyLines(1));
+        tiles.clean(0);
+        assertEquals(0, tiles.getDirtyLines(0));
+        tiles.invalidate(0, Integer.MAX_VALUE);
+        assertEquals(-1, tiles.getDirtyLines(0));
+        assertEquals(-1, tiles.getDirtyLines(1));
+    }
+
+    @Test
+    public void tilesDrawLikeTheView() throws Exception {
+        Configuration config = new Configuration(SyntaxView.class);
+        Configuration cached = new Configuration(SyntaxView.class, config);
+        cached.put(SyntaxView.PROPERTY_TILE_CACHE, "true");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            text.append("int x").append(i).append(" = 1; // ok\n");
+        }
+        JEditorPane pane = newPane(new JavaLexer(), text.toString(), cached);
+        pane.setSize(400, 800);
+        SyntaxView view = viewOf(pane);
+        assertSamePixels("first", paint(newView(pane, config)), paint(view));
+        Document doc = pane.getDocument();
+        doc.insertString(doc.getDefaultRootElement().getElement(3).getStartOffset(), "/* ", null);
+        assertSamePixels("comment", paint(newView(pane, config)), paint(view));
+        doc.remove(doc.getDefaultRootElement().getElement(3).getStartOffset(), 3);
+        assertSamePixels("removed", paint(newView(pane, config)), paint(view));
+        doc.insertString(doc.getDefaultRootElement().getElement(35).getStartOffset(), "\n", null);
+        assertSamePixels("new line", paint(newView(pane, config)), paint(view));
+    }
+
+    private BufferedImage newImage() {
+        return new BufferedImage(100, 50, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+}
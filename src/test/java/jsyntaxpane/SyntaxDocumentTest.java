@@ -0,0 +1,489 @@
+package jsyntaxpane;
+
+import jsyntaxpane.lexers.GroovyLexer;
+import jsyntaxpane.lexers.JavaLexer;
+import jsyntaxpane.lexers.LuaLexer;
+import jsyntaxpane.lexers.PythonLexer;
+import jsyntaxpane.lexers.XmlLexer;
+import org.junit.Test;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyntaxDocumentTest {
+
+    private static final String[] JAVA_SNIPPETS = {
+        "class A {\n", "}\n", "/* block\ncomment */", "/*", "*/", "/** doc @param x\n */\n",
+        "\"str\\\"ing\"", "\"", "'c'", "// eol comment\n", "int x = 0x1F + 3.5e2;\n",
+        "if (a) { b[1] = c; }\n", "\n", " ", "@", "*"
+    };
+    private static final String[] XML_SNIPPETS = {
+        "<a href=\"x\">", "</a>", "<!-- comment -->", "<!--", "-->", "<![CDATA[ x ]]>",
+        "<?xml version=\"1.0\"?>", "text\n", "\n", "<", ">", "\"", "&amp;"
+    };
+    private static final String[] LUA_SNIPPETS = {
+        "local x = 1\n", "--[[ long\ncomment ]]", "--[==[", "]==]", "[[ long string ]]",
+        "-- line comment\n", "\"str\"", "'s'", "function f() end\n", "\n", "[[", "]]"
+    };
+    private static final String[] PYTHON_SNIPPETS = {
+        "def f(x):\n", "    return x\n", "\"\"\"doc\nstring\"\"\"", "\"\"\"", "'''", "'s'",
+        "\"s\"", "# comment\n", "\n", "[1, 2]", "\\"
+    };
+    private static final String[] GROOVY_SNIPPETS = {
+        "def s = \"a ${b} c\"\n", "\"\"\"multi ${x}\nline\"\"\"", "\"\"\"", "${", "}",
+        "/* c */", "/*", "*/", "\"", "\n", "class A {\n"
+    };
+
+    @Test
+    public void incrementalJavaMatchesFullParse() throws BadLocationException {
+        checkRandomEdits(new JavaLexer(), new JavaLexer(), JAVA_SNIPPETS);
+    }
+
+    @Test
+    public void incrementalXmlMatchesFullParse() throws BadLocationException {
+        checkRandomEdits(new XmlLexer(), new XmlLexer(), XML_SNIPPETS);
+    }
+
+    @Test
+    public void incrementalLuaMatchesFullParse() throws BadLocationException {
+        checkRandomEdits(new LuaLexer(), new LuaLexer(), LUA_SNIPPETS);
+    }
+
+    @Test
+    public void incrementalPythonMatchesFullParse() throws BadLocationException {
+        checkRandomEdits(new PythonLexer(), new PythonLexer(), PYTHON_SNIPPETS);
+    }
+
+    @Test
+    public void incrementalGroovyMatchesFullParse() throws BadLocationException {
+        checkRandomEdits(new GroovyLexer(), new GroovyLexer(), GROOVY_SNIPPETS);
+    }
+
+    @Test
+    public void lexerResumesFromSavedState() {
+        checkResume(new JavaLexer(), "int a; /** doc @param x\n more */ s = \"str\\\"ing\"; // end\n");
+        checkResume(new LuaLexer(), "x = [==[ long ]] \n string ]==] -- c\n--[[ long\n comment ]] y");
+        checkResume(new PythonLexer(), "s = '''multi\nline''' + \"x\" # c\n");
+        checkResume(new GroovyLexer(), "s = \"\"\"a ${b}\n c\"\"\" + \"d ${e} f\"\n");
+        checkResume(new XmlLexer(), "<?xml version=\"1.0\"?><a x='1'><!-- c\n --><![CDATA[ d ]]></a>");
+    }
+
+    @Test
+    public void closingCommentFarAwayIsFound() throws BadLocationException {
+        SyntaxDocument doc = new SyntaxDocument(new JavaLexer());
+        StringBuilder sb = new StringBuilder("int a;\n/* not closed\n");
+        for (int i = 0; i < 500; i++) {
+            sb.append("int x").append(i).append(" = ").append(i).append(";\n");
+        }
+        doc.insertString(0, sb.toString(), null);
+        doc.insertString(doc.getLength(), "*/", null);
+        assertEquals(tokensOf(fullParse(new JavaLexer(), doc)), tokensOf(doc));
+    }
+
+    @Test
+    public void asyncLexingPublishesTokensOfLatestText() throws Exception {
+        final SyntaxDocument doc = new SyntaxDocument(new JavaLexer());
+        doc.setAsyncLexing(true);
+        final Random random = new Random(7);
+        SwingUtilities.invokeAndWait(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        String snippet = JAVA_SNIPPETS[random.nextInt(JAVA_SNIPPETS.length)];
+                        doc.insertString(random.nextInt(doc.getLength() + 1), snippet, null);
+                    }
+                } catch (BadLocationException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        final List<String> expected = tokensOf(fullParse(new JavaLexer(), doc));
+        final List<List<String>> actual = new ArrayList<List<String>>();
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(50);
+            SwingUtilities.invokeAndWait(new Runnable() {
+
+                @Override
+                public void run() {
+                    actual.add(0, tokensOf(doc));
+                }
+            });
+            if (expected.equals(actual.get(0))) {
+                break;
+            }
+        }
+        assertEquals(expected, actual.get(0));
+        doc.setAsyncLexing(false);
+    }
+
+    @Test
+    public void pooledDocumentsLexConcurrently() throws Exception {
+        final LexerPool pool = LexerPool.forClass(JavaLexer.class);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<SyntaxDocument>> futures = new ArrayList<Future<SyntaxDocument>>();
+            for (int d = 0; d < 8; d++) {
+                final int seed = d;
+                futures.add(executor.submit(new Callable<SyntaxDocument>() {
+
+                    @Override
+                    public SyntaxDocument call() throws Exception {
+                        SyntaxDocument doc = new SyntaxDocument(pool);
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 300; i++) {
+                            String snippet = JAVA_SNIPPETS[random.nextInt(JAVA_SNIPPETS.length)];
+                            doc.insertString(random.nextInt(doc.getLength() + 1), snippet, null);
+                        }
+                        return doc;
+                    }
+                }));
+            }
+            for (Future<SyntaxDocument> f : futures) {
+                SyntaxDocument doc = f.get();
+                assertEquals(tokensOf(fullParse(new JavaLexer(), doc)), tokensOf(doc));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void lexersAreLentOnce() {
+        LexerPool pool = new LexerPool(LexerPool.factoryFor(JavaLexer.class));
+        Lexer lexer = pool.borrow();
+        pool.release(lexer);
+        pool.release(lexer);
+        assertTrue(lexer == pool.borrow());
+        assertTrue(lexer != pool.borrow());
+    }
+
+    @Test
+    public void kitsDoNotPoolTheirLexer() {
+        JavaLexer lexer = new JavaLexer();
+        new MinimalSyntaxEditorKit(lexer);
+        LexerPool pool = LexerPool.forClass(JavaLexer.class);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(lexer != pool.borrow());
+        }
+    }
+
+    @Test
+    public void parallelLexingMatchesSequential() throws BadLocationException {
+        checkParallel(JavaLexer.class, JAVA_SNIPPETS);
+        checkParallel(XmlLexer.class, XML_SNIPPETS);
+        checkParallel(LuaLexer.class, LUA_SNIPPETS);
+        checkParallel(PythonLexer.class, PYTHON_SNIPPETS);
+        checkParallel(GroovyLexer.class, GROOVY_SNIPPETS);
+    }
+
+    @Test
+    public void pairsFollowEdits() throws BadLocationException {
+        Random random = new Random(7);
+        SyntaxDocument doc = new SyntaxDocument(new JavaLexer());
+        String[] snippets = { "{", "}", "(", ")", "[", "]", "x", " ", "\n", "/*", "*/", "\"" };
+        for (int i = 0; i < 400; i++) {
+            int len = doc.getLength();
+            if (len > 0 && random.nextInt(4) == 0) {
+                int start = random.nextInt(len);
+                doc.remove(start, Math.min(len - start, 1 + random.nextInt(3)));
+            } else {
+                String snippet = snippets[random.nextInt(snippets.length)];
+                doc.insertString(len == 0 ? 0 : random.nextInt(len + 1), snippet, null);
+            }
+            List<Token> tokens = new ArrayList<Token>();
+            Iterator<Token> it = doc.getTokens(0, doc.getLength());
+            while (it.hasNext()) {
+                tokens.add(it.next());
+            }
+            for (int t = 0; t < tokens.size(); t++) {
+                assertEquals("after edit " + i, walkToPair(tokens, t), doc.getPairFor(tokens.get(t)));
+            }
+        }
+    }
+
+    @Test
+    public void occurrencesFollowEdits() throws BadLocationException {
+        Random random = new Random(11);
+        SyntaxDocument doc = new SyntaxDocument(new JavaLexer());
+        Set<TokenType> types = EnumSet.of(TokenType.IDENTIFIER, TokenType.TYPE);
+        String[] snippets = { "ab", "a", "b", "ab ", " ", "\n", "String ", "\"", "/*", "*/", "." };
+        for (int i = 0; i < 2 * OccurrenceIndex.MAX_EDITS + 100; i++) {
+            int len = doc.getLength();
+            if (len > 0 && random.nextInt(4) == 0) {
+                int start = random.nextInt(len);
+                doc.remove(start, Math.min(len - start, 1 + random.nextInt(3)));
+            } else {
+                String snippet = snippets[random.nextInt(snippets.length)];
+                doc.insertString(len == 0 ? 0 : random.nextInt(len + 1), snippet, null);
+            }
+            if (random.nextInt(3) > 0) {
+                continue;
+            }
+            Iterator<Token> it = doc.getTokens(0, doc.getLength());
+            while (it.hasNext()) {
+                Token t = it.next();
+                String text = t.getText(doc).toString();
+                List<Token> expected = new ArrayList<Token>();
+                Iterator<Token> all = doc.getTokens(0, doc.getLength());
+                while (all.hasNext()) {
+                    Token o = all.next();
+                    if (types.contains(o.type) && o.getText(doc).toString().equals(text)) {
+                        expected.add(o);
+                    }
+                }
+                assertEquals("after edit " + i, expected, doc.getOccurrences(t, types));
+            }
+        }
+    }
+
+    @Test
+    public void cursorWalksTokens() throws BadLocationException {
+        SyntaxDocument doc = new SyntaxDocument(new JavaLexer());
+        doc.insertString(0, "class A { int f(int[] a) { return a[0]; } } // end\n", null);
+        List<Token> tokens = new ArrayList<Token>();
+        Iterator<Token> it = doc.getTokens(0, doc.getLength());
+        while (it.hasNext()) {
+            tokens.add(it.next());
+        }
+        TokenCursor cursor = doc.getTokenCursor();
+        for (Token t : tokens) {
+            assertEquals(t, cursor.next());
+            assertEquals(walkToPair(tokens, cursor.getIndex()), doc.getPairFor(t));
+        }
+        assertEquals(null, cursor.next());
+        assertEquals(tokens.get(tokens.size() - 1), cursor.prev());
+        List<Token> keywords = new ArrayList<Token>();
+        for (Token t : tokens) {
+            if (t.type == TokenType.KEYWORD) {
+                keywords.add(t);
+            }
+        }
+        for (int i = keywords.size() - 1; i >= 0; i--) {
+            assertEquals(keywords.get(i), cursor.prev(TokenType.KEYWORD));
+        }
+        assertEquals(null, cursor.prev(TokenType.KEYWORD));
+        assertEquals(keywords.get(0), cursor.next(TokenType.KEYWORD));
+        assertEquals(keywords.get(1), cursor.next(TokenType.KEYWORD));
+        // "class" ends at 5, and the space after it has no token
+        assertTrue(cursor.seek(5));
+        assertEquals(tokens.get(0), cursor.get());
+        doc.insertString(5, " ", null);
+        cursor = doc.getTokenCursor();
+        assertFalse(cursor.seek(6));
+        assertEquals(tokens.get(0), cursor.get());
+        doc.remove(5, 1);
+        cursor = doc.getTokenCursor();
+        int brace = doc.getText(0, doc.getLength()).indexOf('{');
+        assertTrue(cursor.seek(brace));
+        assertEquals(tokens.get(tokens.size() - 2), cursor.pair());
+        assertEquals(brace, cursor.pair().start);
+    }
+
+    @Test
+    public void lineTokensFollowEdits() throws BadLocationException {
+        checkLineTokens(new JavaLexer(), JAVA_SNIPPETS);
+        checkLineTokens(new LuaLexer(), LUA_SNIPPETS);
+    }
+
+    @Test
+    public void tokenChangesTellReplacedTokens() throws BadLocationException {
+        Random random = new Random(13);
+        SyntaxDocument doc = new SyntaxDocument(new JavaLexer());
+        final List<TokenChangeEvent> events = new ArrayList<TokenChangeEvent>();
+        doc.addTokenChangeListener(new TokenChangeListener() {
+
+            @Override
+            public void tokensChanged(TokenChangeEvent e) {
+                events.add(e);
+            }
+        });
+        List<Token> old = new ArrayList<Token>();
+        for (int i = 0; i < 300; i++) {
+            int len = doc.getLength();
+            int delta;
+            int at;
+            if (len > 0 && random.nextInt(4) == 0) {
+                at = random.nextInt(len);
+                delta = -Math.min(len - at, 1 + random.nextInt(8));
+                doc.remove(at, -delta);
+            } else {
+                String snippet = JAVA_SNIPPETS[random.nextInt(JAVA_SNIPPETS.length)];
+                at = len == 0 ? 0 : random.nextInt(len + 1);
+                delta = snippet.length();
+                doc.insertString(at, snippet, null);
+            }
+            assertEquals(1, events.size());
+            TokenChangeEvent e = events.remove(0);
+            List<Token> tokens = new ArrayList<Token>();
+            Iterator<Token> it = doc.getTokens(0, doc.getLength());
+            while (it.hasNext()) {
+                tokens.add(it.next());
+            }
+            List<Token> expected = new ArrayList<Token>(old.subList(0, e.getIndex()));
+            expected.addAll(tokens.subList(e.getIndex(), e.getIndex() + e.getAddedCount()));
+            for (Token t : old.subList(e.getIndex() + e.getRemovedCount(), old.size())) {
+                expected.add(new Token(t.type, t.start + delta, t.length, t.pairValue));
+            }
+            assertEquals("after edit " + i, expected, tokens);
+            for (Token t : tokens.subList(e.getIndex(), e.getIndex() + e.getAddedCount())) {
+                assertTrue(e + " " + t, e.getStart() <= t.start && t.end() <= e.getEnd());
+            }
+            assertTrue(e.getStart() <= at && at <= e.getEnd());
+            old = tokens;
+        }
+    }
+
+    /**
+     * Find the pair by counting the nesting, the way getPairFor used to.
+     */
+    private Token walkToPair(List<Token> tokens, int ndx) {
+        Token t = tokens.get(ndx);
+        if (t.pairValue == 0) {
+            return null;
+        }
+        int step = t.pairValue > 0 ? 1 : -1;
+        int weight = 0;
+        for (int i = ndx; i >= 0 && i < tokens.size(); i += step) {
+            Token p = tokens.get(i);
+            if (Math.abs(p.pairValue) == Math.abs(t.pairValue)) {
+                weight += p.pairValue;
+                if (weight == 0) {
+                    return p;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void checkLineTokens(Lexer lexer, String[] snippets) throws BadLocationException {
+        Random random = new Random(5);
+        SyntaxDocument doc = new SyntaxDocument(lexer);
+        for (int i = 0; i < 400; i++) {
+            int len = doc.getLength();
+            if (len > 0 && random.nextInt(4) == 0) {
+                int start = random.nextInt(len);
+                doc.remove(start, Math.min(len - start, 1 + random.nextInt(8)));
+            } else {
+                String snippet = snippets[random.nextInt(snippets.length)];
+                doc.insertString(len == 0 ? 0 : random.nextInt(len + 1), snippet, null);
+            }
+            Element root = doc.getDefaultRootElement();
+            for (int line = 0; line < root.getElementCount(); line++) {
+                Element e = root.getElement(line);
+                assertEquals("line " + line + " after edit " + i,
+                        doc.getFirstTokenIndex(e.getStartOffset(), e.getEndOffset()),
+                        doc.getLineTokenIndex(line));
+            }
+        }
+    }
+
+    private void checkRandomEdits(Lexer lexer, Lexer reference, String[] snippets)
+            throws BadLocationException {
+        Random random = new Random(42);
+        SyntaxDocument doc = new SyntaxDocument(lexer);
+        for (int i = 0; i < 400; i++) {
+            int len = doc.getLength();
+            if (len > 0 && random.nextInt(4) == 0) {
+                int start = random.nextInt(len);
+                doc.remove(start, Math.min(len - start, 1 + random.nextInt(8)));
+            } else {
+                String snippet = snippets[random.nextInt(snippets.length)];
+                doc.insertString(len == 0 ? 0 : random.nextInt(len + 1), snippet, null);
+            }
+            assertEquals("after edit " + i, tokensOf(fullParse(reference, doc)), tokensOf(doc));
+        }
+    }
+
+    /**
+     * Stop the lexer after each token, and check that resuming from the saved
+     * state gives the same tokens as lexing the whole text.
+     */
+    private void checkResume(StatefulLexer lexer, String text) {
+        Segment seg = new Segment(text.toCharArray(), 0, text.length());
+        List<Token> expected = new ArrayList<Token>();
+        List<Integer> positions = new ArrayList<Integer>();
+        List<Object> states = new ArrayList<Object>();
+        lexer.start(seg, 0, null);
+        for (Token t = lexer.nextToken(); t != null; t = lexer.nextToken()) {
+            expected.add(t);
+            positions.add(lexer.getPosition());
+            states.add(lexer.getState());
+        }
+        for (int i = 0; i < positions.size(); i++) {
+            int pos = positions.get(i);
+            Segment rest = new Segment(seg.array, pos, seg.count - pos);
+            lexer.start(rest, pos, states.get(i));
+            List<Token> actual = new ArrayList<Token>(expected.subList(0, i + 1));
+            for (Token t = lexer.nextToken(); t != null; t = lexer.nextToken()) {
+                actual.add(t);
+            }
+            assertEquals("resumed at " + pos, expected, actual);
+        }
+    }
+
+    /**
+     * Lex random texts in small chunks, so there are many seams, some of
+     * them inside comments or strings.
+     */
+    private void checkParallel(Class<? extends Lexer> lexerClass, String[] snippets)
+            throws BadLocationException {
+        Random random = new Random(3);
+        for (int round = 0; round < 20; round++) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < 5000) {
+                sb.append(snippets[random.nextInt(snippets.length)]);
+            }
+            String text = sb.toString();
+            SyntaxDocument doc = new SyntaxDocument(LexerPool.forClass(lexerClass).borrow());
+            doc.insertString(0, text, null);
+            TokenStore toks = new TokenStore();
+            LexerCheckpoints cps = new LexerCheckpoints();
+            ParallelLexer parallel = new ParallelLexer(LexerPool.forClass(lexerClass),
+                    50 + random.nextInt(200));
+            parallel.lex(new Segment(text.toCharArray(), 0, text.length()), toks, cps);
+            List<String> actual = new ArrayList<String>();
+            for (int i = 0; i < toks.size(); i++) {
+                actual.add(toks.get(i).toString());
+            }
+            assertEquals(lexerClass.getSimpleName() + " round " + round, tokensOf(doc), actual);
+            for (int i = 1; i < cps.size(); i++) {
+                assertTrue(cps.getPosition(i) > cps.getPosition(i - 1));
+                assertTrue(cps.getTokenCount(i) >= cps.getTokenCount(i - 1));
+                assertTrue(cps.getExtent(i) >= cps.getPosition(i));
+            }
+        }
+    }
+
+    private SyntaxDocument fullParse(Lexer lexer, SyntaxDocument doc) throws BadLocationException {
+        SyntaxDocument fresh = new SyntaxDocument(lexer);
+        fresh.insertString(0, doc.getText(0, doc.getLength()), null);
+        return fresh;
+    }
+
+    private List<String> tokensOf(SyntaxDocument doc) {
+        List<String> result = new ArrayList<String>();
+        Iterator<Token> it = doc.getTokens(0, doc.getLength());
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package jsyntaxpane;
+
+import jsyntaxpane.util.Configuration;
+import org.junit.Test;
+
+import javax.swing.JEditorPane;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static jsyntaxpane.TextImages.FONT;
+import static jsyntaxpane.TextImages.assertSamePixels;
+import static jsyntaxpane.TextImages.newGraphics;
+import static jsyntaxpane.TextImages.newImage;
+import static jsyntaxpane.TextImages.newPane;
+import static jsyntaxpane.TextImages.newView;
+import static jsyntaxpane.TextImages.paint;
+import static jsyntaxpane.TextImages.samePixels;
+import static jsyntaxpane.TextImages.segment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyntaxStyleTest {
+
+    private static final String TEXT = "int\tx = 1; // ok";
+
+    @Test
+    public void cachedFontDrawsTheSame() {
+        for (int fontStyle : new int[]{0, Font.BOLD, Font.ITALIC | 0x10, Font.BOLD | 0x8}) {
+            SyntaxStyle style = new SyntaxStyle(new Color(0x3333ee), fontStyle);
+            BufferedImage derived = newImage(300, 30);
+            BufferedImage cached = newImage(300, 30);
+            Graphics2D g = newGraphics(derived);
+            int x1 = style.drawText(segment(TEXT), 5, 20, g, null, 0);
+            g.dispose();
+            g = newGraphics(cached);
+            FontMetrics fm = g.getFontMetrics(FONT.deriveFont(fontStyle));
+            g.setFont(fm.getFont());
+            int x2 = style.drawText(segment(TEXT), 5, 20, g, fm, null, 0);
+            g.dispose();
+            assertEquals(x1, x2);
+            assertTrue(x1 > 5);
+            assertSamePixels("style " + fontStyle, derived, cached);
+        }
+    }
+
+    @Test
+    public void viewDerivesTheFontsAgainWhenTheFontChanges() throws Exception {
+        Configuration config = new Configuration(SyntaxView.class);
+        JEditorPane pane = newPane(null, TEXT);
+        SyntaxView view = newView(pane, config);
+        BufferedImage before = paint(view);
+        pane.setFont(FONT.deriveFont(20f));
+        BufferedImage after = paint(view);
+        assertFalse(samePixels(before, after));
+        assertSamePixels("new font", paint(newView(pane, config)), after);
+    }
+
+    @Test
+    public void viewDerivesTheFontAgainWhenTheStyleChanges() throws Exception {
+        Configuration config = new Configuration(SyntaxView.class);
+        // text without tokens is drawn in the shared DEFAULT style
+        SyntaxStyle style = SyntaxStyles.getInstance().getStyle(TokenType.DEFAULT);
+        JEditorPane pane = newPane(null, TEXT);
+        SyntaxView view = newView(pane, config);
+        boolean bold = style.isBold();
+        BufferedImage before = paint(view);
+        style.setBold(!bold);
+        try {
+            BufferedImage after = paint(view);
+            assertFalse(samePixels(before, after));
+            assertSamePixels("new style", paint(newView(pane, config)), after);
+        } finally {
+            style.setBold(bold);
+        }
+    }
+}
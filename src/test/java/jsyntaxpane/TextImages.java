@@ -0,0 +1,144 @@
+package jsyntaxpane;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import jsyntaxpane.util.Configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Images to draw text in, for the tests that draw the same text in two ways
+ * and compare the pixels.
+ */
+final class TextImages {
+
+    static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 14);
+
+    private TextImages() {
+    }
+
+    static BufferedImage newImage(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    static Graphics2D newGraphics(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(FONT);
+        return g;
+    }
+
+    static Segment segment(String text) {
+        return new Segment(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * A pane with the text in a SyntaxDocument, lexed by the given lexer
+     */
+    static JEditorPane newPane(Lexer lexer, String text) throws BadLocationException {
+        JEditorPane pane = new JEditorPane();
+        SyntaxDocument doc = new SyntaxDocument(lexer);
+        pane.setDocument(doc);
+        doc.insertString(0, text, null);
+        pane.setFont(FONT);
+        pane.setSize(400, 100);
+        return pane;
+    }
+
+    /**
+     * A pane with the text in a SyntaxDocument, shown in a SyntaxView with
+     * the given configuration, which gets the edits of the document
+     */
+    static JEditorPane newPane(final Lexer lexer, String text, final Configuration config)
+            throws BadLocationException {
+        JEditorPane pane = new JEditorPane();
+        pane.setEditorKit(new DefaultEditorKit() {
+
+            @Override
+            public Document createDefaultDocument() {
+                return new SyntaxDocument(lexer);
+            }
+
+            @Override
+            public ViewFactory getViewFactory() {
+                return new ViewFactory() {
+
+                    public View create(Element elem) {
+                        return new SyntaxView(elem, config);
+                    }
+                };
+            }
+        });
+        pane.getDocument().insertString(0, text, null);
+        pane.setFont(FONT);
+        pane.setSize(400, 100);
+        return pane;
+    }
+
+    static SyntaxView viewOf(JEditorPane pane) {
+        return (SyntaxView) pane.getUI().getRootView(pane).getView(0);
+    }
+
+    static SyntaxView newView(JEditorPane pane, Configuration config) {
+        SyntaxView view = new SyntaxView(pane.getDocument().getDefaultRootElement(), config);
+        view.setParent(pane.getUI().getRootView(pane));
+        return view;
+    }
+
+    /**
+     * Paint the whole view on white, as its container would
+     */
+    static BufferedImage paint(SyntaxView view) {
+        Component host = view.getContainer();
+        BufferedImage image = newImage(host.getWidth(), host.getHeight());
+        Graphics2D g = newGraphics(image);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setFont(host.getFont());
+        g.setClip(0, 0, image.getWidth(), image.getHeight());
+        view.paint(g, new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        g.dispose();
+        return image;
+    }
+
+    static boolean samePixels(BufferedImage expected, BufferedImage actual) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+            return false;
+        }
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static void assertSamePixels(String message, BufferedImage expected, BufferedImage actual) {
+        assertEquals(message, expected.getWidth(), actual.getWidth());
+        assertEquals(message, expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                    fail(message + ": pixel " + x + "," + y + " differs");
+                }
+            }
+        }
+    }
+}
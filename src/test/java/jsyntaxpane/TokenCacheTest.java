@@ -0,0 +1,232 @@
+package jsyntaxpane;
+
+import jsyntaxpane.lexers.JavaLexer;
+import jsyntaxpane.lexers.LuaLexer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TokenCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String JAVA = "/** doc\n * @param x\n */\nclass A {\n"
+            + "    String s = \"str\"; /* block\n comment */ int x = 1;\n}\n";
+    private static final String LUA = "x = [==[ long\n string ]==] -- c\n--[[ long\n comment ]] y = 1\n";
+
+    @Test
+    public void loadedDocumentGetsCachedTokens() throws BadLocationException {
+        TokenCache cache = newCache(1 << 20);
+        String text = repeat(JAVA, 200);
+        SyntaxDocument first = newDocument(new JavaLexer(), cache, text);
+        assertEquals(1, cacheFiles().length);
+        SyntaxDocument second = newDocument(new JavaLexer(), cache, text);
+        assertEquals(tokensOf(first), tokensOf(second));
+        assertEquals(first.checkpoints.size(), second.checkpoints.size());
+        // the checkpoints read from the cache are used for incremental lexing
+        second.insertString(text.length() / 2, "/*", null);
+        first.insertString(text.length() / 2, "/*", null);
+        assertEquals(tokensOf(first), tokensOf(second));
+    }
+
+    @Test
+    public void grammarStatesAreCached() throws BadLocationException {
+        TokenCache cache = newCache(1 << 20);
+        String text = repeat(LUA, 200);
+        SyntaxDocument first = newDocument(new LuaLexer(), cache, text);
+        SyntaxDocument second = newDocument(new LuaLexer(), cache, text);
+        for (int i = 0; i < first.checkpoints.size(); i++) {
+            assertEquals(first.checkpoints.getState(i), second.checkpoints.getState(i));
+            assertEquals(first.checkpoints.getExtent(i), second.checkpoints.getExtent(i));
+        }
+        second.insertString(10, "]==]", null);
+        first.insertString(10, "]==]", null);
+        assertEquals(tokensOf(first), tokensOf(second));
+    }
+
+    @Test
+    public void statesAreWrittenAsInts() {
+        LuaLexer lexer = new LuaLexer();
+        lexer.start(new Segment("x = [==[ long".toCharArray(), 0, 13), 0, null);
+        while (lexer.nextToken() != null) {
+        }
+        Object state = lexer.getState();
+        int[] values = lexer.encodeState(state);
+        assertEquals(state, lexer.decodeState(values));
+        try {
+            lexer.decodeState(new int[]{-1, 0, 0});
+            fail("negative lexical state");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedFilesAreEvicted() throws Exception {
+        TokenCache cache = newCache(1 << 20);
+        newDocument(new JavaLexer(), cache, repeat(JAVA, 100));
+        long size = cacheFiles()[0].length();
+        cache = new TokenCache(folder.getRoot(), size * 2 + size / 2);
+        cache.setMinLength(0);
+        File[] files = cacheFiles();
+        files[0].setLastModified(System.currentTimeMillis() - 60000);
+        newDocument(new JavaLexer(), cache, repeat(JAVA, 101));
+        assertEquals(2, cacheFiles().length);
+        newDocument(new JavaLexer(), cache, repeat(JAVA, 102));
+        assertEquals(2, cacheFiles().length);
+        assertFalse(files[0].exists());
+    }
+
+    @Test
+    public void badFilesAreIgnored() throws Exception {
+        TokenCache cache = newCache(1 << 20);
+        String text = repeat(JAVA, 50);
+        SyntaxDocument first = newDocument(new JavaLexer(), cache, text);
+        File file = cacheFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() / 2);
+        raf.close();
+        SyntaxDocument second = newDocument(new JavaLexer(), cache, text);
+        assertEquals(tokensOf(first), tokensOf(second));
+        assertTrue(file.length() > 0);
+    }
+
+    @Test
+    public void editsAreNotCached() throws BadLocationException {
+        TokenCache cache = newCache(1 << 20);
+        // a lexer giving no tokens
+        SyntaxDocument doc = newDocument(new Lexer() {
+            @Override
+            public void parse(Segment segment, int ofst, List<Token> tokens) {
+            }
+        }, cache, repeat(JAVA, 50));
+        assertEquals(1, cacheFiles().length);
+        for (int i = 0; i < 5; i++) {
+            doc.insertString(i, "x", null);
+        }
+        assertEquals(1, cacheFiles().length);
+    }
+
+    @Test
+    public void corruptFilesAreIgnored() throws Exception {
+        TokenCache cache = newCache(1 << 20);
+        String text = repeat(LUA, 50);
+        SyntaxDocument first = newDocument(new LuaLexer(), cache, text);
+        File file = cacheFiles()[0];
+        byte[] bytes = new byte[(int) file.length()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        raf.readFully(bytes);
+        raf.close();
+        // magic, format and text length
+        int header = 9;
+        while ((bytes[header - 1] & 0x80) != 0) {
+            header++;
+        }
+        LuaLexer lexer = new LuaLexer();
+        lexer.start(new Segment(new char[0], 0, 0), 0, null);
+        int[] state = lexer.encodeState(lexer.getState());
+        int n = text.length();
+        // tokens, then states and checkpoints; 0 states for no checkpoints
+        int[][] corruptions = {
+            // overlapping tokens
+            {2, zigzag(0), 5, 0, 0, zigzag(-3), 5, 0, 0, 0},
+            // negative length
+            {1, zigzag(0), -1, 0, 0, 0},
+            // token past the end of the text
+            {1, zigzag(n - 2), 5, 0, 0, 0},
+            // unknown token type
+            {1, zigzag(0), 5, 1000, 0, 0},
+            // truncated
+            {3, zigzag(0), 5},
+            // checkpoint past the end of the text
+            {0, 1, state.length}, {1, n + 1, zigzag(0), 0, 0},
+            // checkpoint past the tokens
+            {0, 1, state.length}, {1, 0, zigzag(0), 1, 0},
+        };
+        for (int i = 0; i < corruptions.length; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(bytes, 0, header);
+            writeVarints(out, corruptions[i]);
+            if (corruptions[i].length == 3 && corruptions[i][1] == 1) {
+                for (int value : state) {
+                    writeVarints(out, new int[]{zigzag(value)});
+                }
+                writeVarints(out, corruptions[++i]);
+            }
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write(out.toByteArray());
+            fos.close();
+            SyntaxDocument second = newDocument(new LuaLexer(), cache, text);
+            assertEquals("corruption " + i, tokensOf(first), tokensOf(second));
+            assertEquals("corruption " + i, first.checkpoints.size(), second.checkpoints.size());
+            // the bad file is replaced by a good one
+            assertTrue(file.length() > out.size());
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static void writeVarints(OutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            while ((value & ~0x7f) != 0) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+
+    private TokenCache newCache(long maxSize) {
+        TokenCache cache = new TokenCache(folder.getRoot(), maxSize);
+        cache.setMinLength(0);
+        return cache;
+    }
+
+    private File[] cacheFiles() {
+        return folder.getRoot().listFiles();
+    }
+
+    private SyntaxDocument newDocument(Lexer lexer, TokenCache cache, String text)
+            throws BadLocationException {
+        SyntaxDocument doc = new SyntaxDocument(lexer);
+        doc.setTokenCache(cache);
+        doc.insertString(0, text, null);
+        return doc;
+    }
+
+    private String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private List<String> tokensOf(SyntaxDocument doc) {
+        List<String> result = new ArrayList<String>();
+        Iterator<Token> it = doc.getTokens(0, doc.getLength());
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        return result;
+    }
+}
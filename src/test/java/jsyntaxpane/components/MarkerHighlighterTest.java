@@ -0,0 +1,75 @@
+package jsyntaxpane.components;
+
+import org.junit.Test;
+
+import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.Highlighter;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MarkerHighlighterTest {
+
+    private static final String TEXT = "int a = b + c; // a b c\nfor (a in b) { c = a; }\n";
+
+    @Test
+    public void markersFollowEditsLikeHighlights() throws BadLocationException {
+        Markers.SimpleMarker marker = new Markers.SimpleMarker(Color.PINK);
+        JTextArea layered = new JTextArea(TEXT);
+        MarkerHighlighter highlighter = new MarkerHighlighter();
+        layered.setHighlighter(highlighter);
+        JTextArea plain = new JTextArea(TEXT);
+        plain.setHighlighter(new DefaultHighlighter());
+        Random random = new Random(42);
+        for (int i = 0; i < TEXT.length(); i += 3) {
+            int length = 1 + random.nextInt(4);
+            Markers.markText(layered, i, Math.min(TEXT.length(), i + length), marker);
+            Markers.markText(plain, i, Math.min(TEXT.length(), i + length), marker);
+        }
+        for (int edit = 0; edit < 200; edit++) {
+            random.setSeed(edit);
+            edit(layered.getDocument(), random);
+            random.setSeed(edit);
+            edit(plain.getDocument(), random);
+            assertEquals(ranges(plain), ranges(highlighter.getLayer(marker)));
+        }
+        Markers.removeMarkers(layered, marker);
+        assertNull(highlighter.getLayer(marker));
+    }
+
+    private void edit(Document doc, Random random) throws BadLocationException {
+        int length = doc.getLength();
+        // inserts at 0 do not move the positions at 0
+        int offset = 1 + random.nextInt(length - 1);
+        if (random.nextBoolean() || length < 20) {
+            doc.insertString(offset, "xyz".substring(random.nextInt(3)), null);
+        } else {
+            doc.remove(offset, Math.min(random.nextInt(6), length - offset));
+        }
+    }
+
+    private List<String> ranges(JTextArea pane) {
+        List<String> result = new ArrayList<String>();
+        for (Highlighter.Highlight h : pane.getHighlighter().getHighlights()) {
+            if (h.getStartOffset() < h.getEndOffset()) {
+                result.add(h.getStartOffset() + "-" + h.getEndOffset());
+            }
+        }
+        return result;
+    }
+
+    private List<String> ranges(MarkerHighlighter.Layer layer) {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < layer.size(); i++) {
+            result.add(layer.getStart(i) + "-" + layer.getEnd(i));
+        }
+        return result;
+    }
+}
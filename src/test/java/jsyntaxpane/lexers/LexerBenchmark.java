@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008 Ayman Al-Sairafi ayman.alsairafi@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License
+ *       at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jsyntaxpane.lexers;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import jsyntaxpane.Token;
+
+/**
+ * Compares the lexing throughput of the JFlex lexers reading from a
+ * CharArrayReader with scanning the char array directly.
+ *
+ * Run with: java -cp target/classes:target/test-classes
+ *      jsyntaxpane.lexers.LexerBenchmark [size in KB] [rounds]
+ */
+public class LexerBenchmark {
+
+    private static final Object[][] SAMPLES = {
+        {new JavaLexer(), "/** Doc {@link X} */\npublic class A extends B {\n"
+            + "    // comment\n    private int x = 0x1F + 3.5e2;\n"
+            + "    String s = \"str\\\"ing\"; char c = 'c';\n"
+            + "    /* block */ void f(int[] a) { if (a != null) { x++; } }\n}\n"},
+        {new GroovyLexer(), "def s = \"a ${b} c\"\nclass A { def f(x) { x * 2 } }\n"
+            + "/* c */ def m = \"\"\"multi\n${x} line\"\"\"\n"},
+        {new ScalaLexer(), "object A { def f(x: Int): Int = x * 2 // c\n val s = \"str\" }\n"},
+        {new JFlexLexer(), "%%\n%class A\n%{ int x; %}\nID = [a-z]+\n%%\n{ID} { return 1; }\n"},
+        {new CLexer(), "#include <stdio.h>\nint main(int argc, char **argv) {\n"
+            + "  /* c */ printf(\"%d\\n\", argc); return 0; // c\n}\n"},
+        {new CppLexer(), "#include <vector>\nclass A : public B { public: virtual ~A(); };\n"
+            + "std::vector<int> v; // comment\n"},
+        {new JavaScriptLexer(), "function f(x) { var s = 'a' + \"b\"; return /re+/.test(s); }\n"},
+        {new PythonLexer(), "def f(x):\n    '''doc\n    string'''\n    return x * 2  # c\n"
+            + "s = \"str\" + 'str'\n"},
+        {new RubyLexer(), "class A\n  def f(x)\n    s = \"str #{x}\" # c\n  end\nend\n"},
+        {new LuaLexer(), "local x = 1 -- c\n--[[ long\ncomment ]]\n"
+            + "function f() return [[ long string ]] end\n"},
+        {new ClojureLexer(), "(defn f [x] (str \"a\" x)) ; comment\n(def m {:a 1 :b \\c})\n"},
+        {new RLexer(), "f <- function(x) { y <- x * 2 # c\n  print(\"str\") }\n"},
+        {new BashLexer(), "#!/bin/sh\nfor f in *.txt; do echo \"$f\" # c\ndone\n"},
+        {new DOSBatchLexer(), "@echo off\nrem comment\nset X=1\nif exist %X% goto end\n:end\n"},
+        {new SqlLexer(), "SELECT a, b FROM t WHERE x = 'str' AND y > 10; -- c\n"},
+        {new PropertiesLexer(), "# comment\nkey = value\nother.key : other value\n"},
+        {new TALLexer(), "<div tal:content=\"x/y\" tal:condition=\"not:z\">text</div>\n"},
+        {new XmlLexer(), "<?xml version=\"1.0\"?>\n<a href=\"x\"><!-- c -->"
+            + "<![CDATA[ d ]]>text &amp; more</a>\n"},
+        {new XHTMLLexer(), "<!DOCTYPE html>\n<html><body class=\"x\"><p>text &nbsp;</p>"
+            + "<!-- c --></body></html>\n"},
+        {new XPathLexer(), "/a/b[@c = 'd' and position() > 1]//e/text()\n"}
+    };
+
+    public static void main(String[] args) throws IOException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) * 1024 : 2 << 20;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        System.out.printf("%-18s %10s %12s %12s %8s%n", "Lexer", "Tokens",
+                "Reader MB/s", "Direct MB/s", "Gain");
+        for (Object[] sample : SAMPLES) {
+            DefaultJFlexLexer lexer = (DefaultJFlexLexer) sample[0];
+            char[] text = repeat((String) sample[1], size);
+            double reader = 0;
+            double direct = 0;
+            int tokens = 0;
+            // first round warms up the JIT
+            for (int r = 0; r <= rounds; r++) {
+                long ts = System.nanoTime();
+                lexer.yyreset(new CharArrayReader(text));
+                tokens = count(lexer);
+                long readerTime = System.nanoTime() - ts;
+                ts = System.nanoTime();
+                lexer.yyreset(text, 0, text.length);
+                if (count(lexer) != tokens) {
+                    throw new IllegalStateException("Different tokens from " + lexer);
+                }
+                long directTime = System.nanoTime() - ts;
+                if (r > 0) {
+                    reader += mbPerSecond(text.length, readerTime) / rounds;
+                    direct += mbPerSecond(text.length, directTime) / rounds;
+                }
+            }
+            System.out.printf("%-18s %10d %12.1f %12.1f %7.0f%%%n",
+                    lexer.getClass().getSimpleName(), tokens, reader, direct,
+                    (direct / reader - 1) * 100);
+        }
+    }
+
+    private static int count(DefaultJFlexLexer lexer) throws IOException {
+        int count = 0;
+        for (Token t = lexer.yylex(); t != null; t = lexer.yylex()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static char[] repeat(String sample, int size) {
+        StringBuilder sb = new StringBuilder(size + sample.length());
+        while (sb.length() < size) {
+            sb.append(sample);
+        }
+        return sb.toString().toCharArray();
+    }
+
+    private static double mbPerSecond(int chars, long nanos) {
+        return (chars / (1024.0 * 1024.0)) / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,68 @@
+package jsyntaxpane.lexers;
+
+import jsyntaxpane.Token;
+import jsyntaxpane.TokenType;
+import org.junit.Test;
+
+import javax.swing.text.Segment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SimpleRegexLexerTest {
+
+    private SimpleRegexLexer javaLexer() {
+        return new SimpleRegexLexer(new HashMap<String, String>())
+                .putPattern(TokenType.COMMENT, "/\\*(?:.|[\\n\\r])*?\\*/|//.*")
+                .putPattern(TokenType.STRING, "\"((?:\\\")|.*)?\"")
+                .putPattern(TokenType.IDENTIFIER, "[a-z][a-zA-Z0-9_]*")
+                .putPattern(TokenType.TYPE, "[A-Z_]\\w*")
+                .putPattern(TokenType.KEYWORD, "int|if|for")
+                .putPattern(TokenType.TYPE3, "@\\w+");
+    }
+
+    @Test
+    public void longestMatchWins() {
+        assertEquals(Arrays.asList(
+                "KEYWORD 0 3", "IDENTIFIER 4 7", "IDENTIFIER 14 5", "COMMENT 20 8"),
+                describe(lex(javaLexer(), "int integer = print /* if */", 0)));
+    }
+
+    @Test
+    public void keywordWinsTieWithIdentifier() {
+        assertEquals(Arrays.asList("KEYWORD 10 3", "IDENTIFIER 14 1"),
+                describe(lex(javaLexer(), "for x", 10)));
+    }
+
+    @Test
+    public void adjacentTokensAreKept() {
+        assertEquals(Arrays.asList("TYPE3 0 9", "TYPE 10 6", "STRING 16 3", "IDENTIFIER 20 1"),
+                describe(lex(javaLexer(), "@Override String\"s\" x", 0)));
+    }
+
+    @Test
+    public void backReferencesStillMatch() {
+        SimpleRegexLexer lexer = new SimpleRegexLexer(new HashMap<String, String>())
+                .putPattern(TokenType.STRING, "(['\"]).*?\\1")
+                .putPattern(TokenType.IDENTIFIER, "[a-z]+");
+        assertEquals(Arrays.asList("IDENTIFIER 0 1", "STRING 2 5", "STRING 8 3"),
+                describe(lex(lexer, "a 'b\"c' \"d\"", 0)));
+    }
+
+    private List<Token> lex(SimpleRegexLexer lexer, String text, int ofst) {
+        List<Token> tokens = new ArrayList<Token>();
+        lexer.parse(new Segment(text.toCharArray(), 0, text.length()), ofst, tokens);
+        return tokens;
+    }
+
+    private List<String> describe(List<Token> tokens) {
+        List<String> result = new ArrayList<String>();
+        for (Token t : tokens) {
+            result.add(t.type + " " + t.start + " " + t.length);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package jsyntaxpane.tokenize;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenExporterTest {
+
+    private static final String JAVA = "if (a < b && c > d) { return \"x\"; } // done\n";
+
+    @Test
+    public void htmlHasSpansAndEscapedText() throws Exception {
+        StringWriter out = new StringWriter();
+        new HtmlExporter(out, "text/java").export("text/java", new StringReader(JAVA));
+        assertTrue(out.toString().startsWith("<pre class=\"jsyntaxpane\"><span class=\"keyword\">if</span> "
+                + "<span class=\"operator\">(</span><span class=\"identifier\">a</span> "
+                + "<span class=\"operator\">&lt;</span> <span class=\"identifier\">b</span> "
+                + "<span class=\"operator\">&amp;&amp;</span>"));
+        assertTrue(out.toString().endsWith("<span class=\"comment\">// done\n</span></pre>\n"));
+    }
+
+    @Test
+    public void styleSheetUsesKitStyles() throws Exception {
+        StringWriter out = new StringWriter();
+        new HtmlExporter(out, "text/groovy").writeStyleSheet();
+        assertTrue(out.toString().contains(".jsyntaxpane .comment { color: #666666; font-style: italic; }\n"));
+        out = new StringWriter();
+        new HtmlExporter(out, "text/java").writeStyleSheet();
+        assertTrue(out.toString().contains(".jsyntaxpane .comment { color: #339933; font-style: italic; }\n"));
+        assertTrue(out.toString().contains(".jsyntaxpane .keyword { color: #3333ee; }\n"));
+    }
+
+    @Test
+    public void ansiResetsAfterStyledTokens() throws Exception {
+        StringWriter out = new StringWriter();
+        new AnsiExporter(out, "text/java").export("text/java", new StringReader("return x;"));
+        assertEquals("\u001b[0;38;2;51;51;238mreturn\u001b[0m x;", out.toString());
+    }
+
+    @Test
+    public void exportsInParallel() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(JAVA);
+        }
+        StringWriter expected = new StringWriter();
+        new HtmlExporter(expected, "text/java").export("text/java", new StringReader(sb.toString()));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception {
+                        StringWriter out = new StringWriter();
+                        new HtmlExporter(out, "text/java").export("text/java",
+                                new StringReader(sb.toString()));
+                        return out.toString();
+                    }
+                }));
+            }
+            for (Future<String> f : futures) {
+                assertEquals(expected.toString(), f.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package jsyntaxpane.tokenize;
+
+import jsyntaxpane.Token;
+import jsyntaxpane.TokenType;
+import jsyntaxpane.lexers.JavaLexer;
+import jsyntaxpane.lexers.XmlLexer;
+import jsyntaxpane.util.JarServiceProvider;
+import org.junit.Test;
+
+import javax.swing.text.Segment;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TokenStreamTest {
+
+    private static final String JAVA = "/** doc\n * @param x\n */\npublic class A {\n"
+            + "    String s = \"str\"; // comment\n    int x = 0x1F;\n}\n";
+
+    @Test
+    public void lexerIsFoundFromKitName() {
+        assertEquals(JavaLexer.class, TokenStream.getLexerClass("text/java"));
+        assertEquals(XmlLexer.class, TokenStream.getLexerClass("text/xml"));
+        assertNull(TokenStream.getLexerClass("text/plain"));
+        assertFalse(TokenStream.isSupported("text/unknown"));
+    }
+
+    @Test
+    public void everyKitHasALexer() {
+        Properties kits = JarServiceProvider.readProperties("jsyntaxpane/kitsfortypes");
+        for (String type : kits.stringPropertyNames()) {
+            if (!type.equals("text/plain")) {
+                assertNotNull(type, TokenStream.getLexerClass(type));
+            }
+        }
+    }
+
+    @Test
+    public void streamHasSameTokensAsLexer() {
+        List<Token> expected = new ArrayList<Token>();
+        new JavaLexer().parse(new Segment(JAVA.toCharArray(), 0, JAVA.length()), 0, expected);
+        List<Token> actual = new ArrayList<Token>();
+        TokenStream stream = TokenStream.create("text/java", new SlowReader(JAVA, 1));
+        while (stream.hasNext()) {
+            Token t = stream.next();
+            assertEquals(JAVA.substring(t.start, t.end()), stream.getText(t.start, t.end()).toString());
+            actual.add(t);
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void handlerReceivesAllText() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append(JAVA);
+        }
+        String text = sb.toString() + "  ";
+        final StringBuilder copy = new StringBuilder();
+        final int[] comments = new int[1];
+        List<Token> tokens = new ArrayList<Token>();
+        new JavaLexer().parse(new Segment(JAVA.toCharArray(), 0, JAVA.length()), 0, tokens);
+        int expected = 0;
+        for (Token t : tokens) {
+            if (t.type == TokenType.COMMENT) {
+                expected++;
+            }
+        }
+        TokenStream.create("text/java", new SlowReader(text, 1000)).tokenize(new TokenHandler() {
+
+            @Override
+            public void text(int start, CharSequence text) {
+                assertEquals(copy.length(), start);
+                copy.append(text);
+            }
+
+            @Override
+            public void token(Token token, CharSequence text) {
+                assertEquals(copy.length(), token.start);
+                if (token.type == TokenType.COMMENT) {
+                    comments[0]++;
+                }
+                copy.append(text);
+            }
+        });
+        assertEquals(text, copy.toString());
+        assertEquals(5000 * expected, comments[0]);
+    }
+
+    @Test
+    public void plainTextHasNoTokens() throws IOException {
+        TokenStream stream = TokenStream.create("text/plain", "some text");
+        assertFalse(stream.hasNext());
+        final StringBuilder copy = new StringBuilder();
+        TokenStream.create("text/plain", "some text").tokenize(new TokenHandler() {
+
+            @Override
+            public void text(int start, CharSequence text) {
+                copy.append(text);
+            }
+
+            @Override
+            public void token(Token token, CharSequence text) {
+                throw new AssertionError(token);
+            }
+        });
+        assertEquals("some text", copy.toString());
+        assertTrue(TokenStream.isSupported("text/plain"));
+    }
+
+    /**
+     * Returns at most the given number of chars from each read
+     */
+    private static class SlowReader extends Reader {
+
+        private final String text;
+        private final int max;
+        private int pos;
+
+        SlowReader(String text, int max) {
+            this.text = text;
+            this.max = max;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (pos >= text.length()) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, max), text.length() - pos);
+            text.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}